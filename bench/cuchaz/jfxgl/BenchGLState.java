@@ -0,0 +1,87 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package cuchaz.jfxgl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.glfw.GLFW;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Backs up and restores the same GL state JFXGLMainWindow.renderFramebuf() does, in a hidden window's context.
+ * <p>
+ * Only uses the GLState API that's been around since before the slot layout, so the same benchmark
+ * can run against older versions to compare. Run with the JMH option {@code -prof gc} to see the allocation rate too.
+ * <p>
+ * NOTE: the context has to be current on the benchmark thread, so this won't run on OSX, where GLFW only works on the main thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BenchGLState {
+	
+	private long hwnd;
+	private GLState glstate;
+	
+	@Setup
+	public void setup() {
+		
+		if (!GLFW.glfwInit()) {
+			throw new Error("Can't initialize GLFW");
+		}
+		GLFW.glfwWindowHint(GLFW.GLFW_VISIBLE, GLFW.GLFW_FALSE);
+		hwnd = GLFW.glfwCreateWindow(1, 1, "BenchGLState", MemoryUtil.NULL, MemoryUtil.NULL);
+		if (hwnd <= 0) {
+			throw new Error("Can't create GLFW window");
+		}
+		GLFW.glfwMakeContextCurrent(hwnd);
+		GL.createCapabilities();
+		
+		glstate = new GLState(
+			GLState.Blend, GLState.BlendFunc, GLState.ShaderProgram,
+			GLState.ActiveTexture, GLState.Texture2D[0],
+			GLState.VertexArray, GLState.ArrayBuffer, GLState.ElementArrayBuffer,
+			GLState.Viewport
+		);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		GLFW.glfwMakeContextCurrent(MemoryUtil.NULL);
+		GLFW.glfwDestroyWindow(hwnd);
+		GLFW.glfwTerminate();
+	}
+	
+	@Benchmark
+	public void backup() {
+		glstate.backup();
+	}
+	
+	@Benchmark
+	public void backupRestore() {
+		glstate.backup();
+		glstate.restore();
+	}
+}
@@ -0,0 +1,80 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package cuchaz.jfxgl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copies a batch of Prism's quad vertex coords into a direct buffer,
+ * the way JFXGLContext.drawIndexedQuads() used to (one float at a time) and does now (one bulk put).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BenchVertexCopy {
+	
+	// pos (3 floats), tex0 and tex1 (2 floats each)
+	private static final int FloatsPerVertex = 7;
+	
+	@Param({ "4096", "16384", "65536" })
+	public int numVertices;
+	
+	private float[] coords;
+	private ByteBuffer buf;
+	private FloatBuffer floatBuf;
+	
+	@Setup
+	public void setup() {
+		
+		int numFloats = numVertices*FloatsPerVertex;
+		coords = new float[numFloats];
+		for (int i=0; i<numFloats; i++) {
+			coords[i] = i;
+		}
+		
+		// like the mapped streaming buffer
+		buf = ByteBuffer.allocateDirect(numFloats*Float.BYTES).order(ByteOrder.nativeOrder());
+		floatBuf = buf.asFloatBuffer();
+	}
+	
+	@Benchmark
+	public ByteBuffer loop() {
+		buf.clear();
+		for (int i=0; i<coords.length; i++) {
+			buf.putFloat(coords[i]);
+		}
+		return buf;
+	}
+	
+	@Benchmark
+	public FloatBuffer bulk() {
+		floatBuf.clear();
+		floatBuf.put(coords, 0, coords.length);
+		return floatBuf;
+	}
+}
@@ -10,7 +10,13 @@
 package cuchaz.jfxgl;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.zip.Deflater;
 import java.util.zip.ZipOutputStream;
 
@@ -26,8 +32,10 @@ import org.jerkar.api.depmanagement.JkScopedDependency;
 import org.jerkar.api.depmanagement.JkVersion;
 import org.jerkar.api.depmanagement.JkVersionedModule;
 import org.jerkar.api.file.JkFileTreeSet;
+import org.jerkar.api.file.JkPath;
 import org.jerkar.api.file.JkPathFilter;
 import org.jerkar.api.java.JkJavaCompiler;
+import org.jerkar.api.java.JkJavaProcess;
 import org.jerkar.api.utils.JkUtilsIO;
 import org.jerkar.api.utils.JkUtilsZip;
 import org.jerkar.tool.JkDoc;
@@ -40,6 +48,18 @@ public class Build extends JkJavaBuild {
 	@JkDoc("path to local maven repo for publishing")
 	private File pathMavenRepo = new File("maven");
 	
+	@JkDoc("path to the JavaFX jar whose shaders get translated")
+	private File pathJfxrtJar = new File("../openjfx/build/sdk/rt/lib/ext/jfxrt.jar");
+	
+	@JkDoc("glslangValidator executable, for checking translated shaders")
+	private String pathGlslang = "glslangValidator";
+	
+	@JkDoc("regex of the benchmarks to run, or empty to run all of them")
+	private String benchmarks = "";
+	
+	@JkDoc("extra options for JMH, eg \"-prof gc\"")
+	private String jmhOptions = "";
+	
 	public Build() {
 		// tell the eclipse plugin to use the special JDK without JavaFX
 		// NOTE: you should create a JRE in the  eclipse workspace needs to have a JRE with this name!
@@ -82,6 +102,10 @@ public class Build extends JkJavaBuild {
 			.on("junit:junit:4.12").scope(TEST)
 			.on("org.hamcrest:hamcrest-all:1.3").scope(TEST)
 			
+			// benchmark libs
+			.on("org.openjdk.jmh:jmh-core:1.19").scope(TEST)
+			.on("org.openjdk.jmh:jmh-generator-annprocess:1.19").scope(TEST)
+			
 			// OpenJFX modules (already compiled)
 			.on(new File("../openjfx/modules/controls/bin")).scope(PROVIDED)
 			.on(new File("../openjfx/modules/fxml/bin")).scope(PROVIDED)
@@ -150,13 +174,97 @@ public class Build extends JkJavaBuild {
 			.to(ouputDir().file("jfxgl-controls.jar"));
 	}
 	
+	/**
+	 * Runs the JMH benchmarks in the bench folder
+	 */
+	public void doBenchmarks() {
+		
+		compile();
+		
+		// compile the benchmarks, which also runs the JMH annotation processor to generate the harness
+		File benchClassDir = ouputDir("bench-classes");
+		JkPath classpath = depsFor(TEST, PROVIDED).andHead(classDir());
+		boolean compiled = JkJavaCompiler.outputtingIn(benchClassDir)
+			.andSourceDir(file("bench"))
+			.withClasspath(classpath)
+			.withSourceVersion(javaSourceVersion())
+			.withTargetVersion(javaTargetVersion())
+			.compile();
+		if (!compiled) {
+			throw new Error("benchmarks did not compile");
+		}
+		
+		List<String> args = new ArrayList<>();
+		if (!jmhOptions.trim().isEmpty()) {
+			args.addAll(Arrays.asList(jmhOptions.trim().split("\\s+")));
+		}
+		args.add(benchmarks);
+		JkJavaProcess.of()
+			.withClasspath(classpath.andHead(benchClassDir))
+			.runClassSync("org.openjdk.jmh.Main", args.toArray(new String[args.size()]));
+	}
+	
+	/**
+	 * Translates the JavaFX ES2 shaders to GLSL 150 ahead of time, so JFXGL doesn't have to at runtime
+	 */
+	@SuppressWarnings("unchecked")
+	public void doTranslateShaders()
+	throws Exception {
+		
+		compile();
+		
+		// start fresh, so shaders from older versions of JavaFX don't pile up
+		File outDir = file("resources/com/sun/prism/es2/glsl150");
+		if (outDir.exists()) {
+			for (File file : outDir.listFiles()) {
+				file.delete();
+			}
+		}
+		
+		// run the translator from the compiled classes, since the build def can't see our sources
+		List<File> files;
+		try (URLClassLoader loader = new URLClassLoader(new URL[] { classDir().toURI().toURL() }, null)) {
+			Method method = loader.loadClass("com.sun.prism.es2.ShaderTranslator").getMethod("translateAll", File.class, File.class);
+			files = (List<File>)method.invoke(null, pathJfxrtJar, outDir);
+		}
+		System.out.println("Translated " + files.size() + " shaders");
+		
+		validateShaders(files);
+		
+		// copy the new resources into the class dir
+		compile();
+	}
+	
+	private void validateShaders(List<File> files)
+	throws IOException, InterruptedException {
+		
+		List<String> command = new ArrayList<>();
+		command.add(pathGlslang);
+		for (File file : files) {
+			command.add(file.getAbsolutePath());
+		}
+		
+		Process process;
+		try {
+			process = new ProcessBuilder(command).inheritIO().start();
+		} catch (IOException ex) {
+			System.err.println("WARNING: can't run " + pathGlslang + ", translated shaders were not validated");
+			return;
+		}
+		if (process.waitFor() != 0) {
+			throw new Error("translated shaders did not validate, see the glslangValidator output for details");
+		}
+	}
+	
 	/**
 	 * Unless you're me, you probably don't want to run this =P
 	 * 
 	 * Also, don't forget to compile your jfxrt.jar first
 	 */
-	public void doMaven() {
+	public void doMaven()
+	throws Exception {
 		
+		doTranslateShaders();
 		doPack();
 		
 		// publish to the local maven repo
@@ -53,7 +53,7 @@ public class JFXGLMainWindow extends JFXGLWindow {
 	private int width = 0;
 	private int height = 0;
 	private OffscreenBuffer buf = null;
-	private boolean fboDirty = true;
+	private boolean changed = true;
 	private GLState glstate = new GLState(
 		GLState.Blend, GLState.BlendFunc, GLState.ShaderProgram,
 		GLState.ActiveTexture, GLState.Texture2D[0],
@@ -82,7 +82,7 @@ public class JFXGLMainWindow extends JFXGLWindow {
 			if (width != this.width || height != this.height) {
 				this.width = width;
 				this.height = height;
-				this.fboDirty = true;
+				this.changed = true;
 			}
 			
 			// NOTE: GLFW events called on main thread, so relay to events thread
@@ -194,9 +194,8 @@ public class JFXGLMainWindow extends JFXGLWindow {
 		// do we need to resize the framebuffer?
 		if (buf == null) {
 			buf = new OffscreenBuffer(context, width, height);
-		}
-		if (fboDirty) {
-			fboDirty = false;
+		} else {
+			// NOTE: resize every frame, so the buffer can shrink after the size settles
 			buf.resize(width, height);
 		}
 	}
@@ -218,21 +217,34 @@ public class JFXGLMainWindow extends JFXGLWindow {
 		return 0;
 	}
 	
+	/**
+	 * Returns true if the window was resized since the last call.
+	 */
+	@CalledByMainThread
+	public boolean checkChanged() {
+		boolean val = changed;
+		changed = false;
+		return val;
+	}
+	
 	@CalledByMainThread
 	@InAppGLContext
 	public void renderFramebuf() {
 		if (buf != null) {
 			
-			glstate.backup();
+			// the app could have changed anything since we last used the context
+			JFXGLContext context = JFXGLContexts.getCurrent();
+			context.invalidateState();
+			glstate.backup(context.getShadow());
 			
-			GL11.glEnable(GL11.GL_BLEND);
-			GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
-			GL11.glViewport(0, 0, width, height);
+			context.setCapability(GL11.GL_BLEND, true);
+			context.setBlendFactors(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+			context.setViewport(0, 0, width, height);
 			
 			// composite our framebuffer onto the main framebuffer
 			buf.render();
 			
-			glstate.restore();
+			glstate.restore(context.getShadow());
 		}
 	}
 	
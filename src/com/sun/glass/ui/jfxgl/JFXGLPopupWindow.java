@@ -12,6 +12,7 @@ package com.sun.glass.ui.jfxgl;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.lwjgl.opengl.GL11;
 
@@ -24,7 +25,9 @@ import com.sun.prism.es2.OffscreenBuffer;
 
 import cuchaz.jfxgl.CalledByEventsThread;
 import cuchaz.jfxgl.CalledByMainThread;
+import cuchaz.jfxgl.FrameStats;
 import cuchaz.jfxgl.GLState;
+import cuchaz.jfxgl.GPUTimer;
 import cuchaz.jfxgl.InAppGLContext;
 import cuchaz.jfxgl.InJavaFXGLContext;
 
@@ -32,6 +35,47 @@ public class JFXGLPopupWindow extends JFXGLWindow {
 	
 	public static List<JFXGLPopupWindow> windows = Collections.synchronizedList(new ArrayList<>());
 	
+	private static AtomicBoolean windowsChanged = new AtomicBoolean(false);
+	
+	// timers of closed popups, waiting for the main thread to delete their queries in the app context
+	private static List<GPUTimer> closedTimers = Collections.synchronizedList(new ArrayList<>());
+	
+	/**
+	 * Returns true if any popup was shown, closed, moved, or resized since the last call.
+	 */
+	@CalledByMainThread
+	public static boolean checkChanged() {
+		return windowsChanged.getAndSet(false);
+	}
+	
+	/**
+	 * Deletes the GPU timer queries of popups that were closed since the last call.
+	 */
+	@CalledByMainThread
+	@InAppGLContext
+	public static void cleanupClosedTimers() {
+		synchronized (closedTimers) {
+			for (GPUTimer timer : closedTimers) {
+				timer.cleanup();
+			}
+			closedTimers.clear();
+		}
+	}
+	
+	/**
+	 * Deletes the GPU timer queries of all the popups, open or closed.
+	 */
+	@CalledByMainThread
+	@InAppGLContext
+	public static void cleanupTimers() {
+		cleanupClosedTimers();
+		synchronized (windows) {
+			for (JFXGLPopupWindow popup : windows) {
+				popup.timer.cleanup();
+			}
+		}
+	}
+	
 	public static JFXGLPopupWindow findPopupAt(int x, int y) {
 		
 		JFXGLPopupWindow topPopup = null;
@@ -74,6 +118,9 @@ public class JFXGLPopupWindow extends JFXGLWindow {
 		GLState.Viewport
 	);
 	
+	// NOTE: the timer lives in the app context, so only clean it up there
+	private GPUTimer timer = new GPUTimer(FrameStats.Phase.GPUPopupComposite);
+	
 	protected JFXGLPopupWindow(Window owner, Screen screen, int styleMask) {
 		super(owner, screen, styleMask, Implementation.Ignore);
 		
@@ -81,6 +128,7 @@ public class JFXGLPopupWindow extends JFXGLWindow {
 		context = JFXGLContexts.app;
 		
 		windows.add(this);
+		windowsChanged.set(true);
 	}
 	
 	@Override
@@ -95,6 +143,8 @@ public class JFXGLPopupWindow extends JFXGLWindow {
 	protected boolean _close(long hwnd) {
 		
 		windows.remove(this);
+		windowsChanged.set(true);
+		closedTimers.add(timer);
 		
 		notifyDestroy();
 		
@@ -125,6 +175,7 @@ public class JFXGLPopupWindow extends JFXGLWindow {
 		} else if (ch > 0) {
 			this.height = ch;
 		}
+		windowsChanged.set(true);
 		
 		// tell the window and view to resize
 		notifyResize(WindowEvent.RESIZE, this.width, this.height);
@@ -189,20 +240,25 @@ public class JFXGLPopupWindow extends JFXGLWindow {
 	public void renderFramebuf(int windowWidth, int windowHeight) {
 		if (buf != null) {
 			
-			glstate.backup();
+			// the app could have changed anything since we last used the context
+			JFXGLContext context = JFXGLContexts.getCurrent();
+			context.invalidateState();
+			glstate.backup(context.getShadow());
 			
 			// compute pos
 			int x = renderX;
 			int y = windowHeight - height - renderY;
 			
-			GL11.glEnable(GL11.GL_BLEND);
-			GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
-			GL11.glViewport(x, y, width, height);
+			context.setCapability(GL11.GL_BLEND, true);
+			context.setBlendFactors(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+			context.setViewport(x, y, width, height);
 			
 			// composite our framebuffer onto the main framebuffer
+			timer.begin();
 			buf.render(0, 0, width, height, false);
+			timer.end();
 			
-			glstate.restore();
+			glstate.restore(context.getShadow());
 		}
 	}
 	
@@ -12,41 +12,188 @@ package com.sun.javafx.tk.quantum;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL32;
 
 import com.sun.glass.ui.jfxgl.JFXGLMainWindow;
 import com.sun.glass.ui.jfxgl.JFXGLPopupWindow;
 import com.sun.javafx.tk.RenderJob;
+import com.sun.javafx.tk.Toolkit;
 import com.sun.prism.es2.JFXGLContexts;
 
+import cuchaz.jfxgl.CalledByEventsThread;
+import cuchaz.jfxgl.CalledByMainAndEventsThreads;
+import cuchaz.jfxgl.CalledByMainThread;
+import cuchaz.jfxgl.CalledByOtherThreads;
+import cuchaz.jfxgl.FrameStats;
+import cuchaz.jfxgl.GPUTimer;
+import cuchaz.jfxgl.InAppGLContext;
+import cuchaz.jfxgl.InJavaFXGLContext;
+import cuchaz.jfxgl.JFXGL;
+import cuchaz.jfxgl.MPSCQueue;
+
 public class JFXGLRenderer extends QuantumRenderer {
 	
-	private List<Runnable> jobQueue;
-	private List<Runnable> jobs;
+	/**
+	 * How to make sure JavaFX rendering (in the JavaFX context) is finished
+	 * before the app context samples the JavaFX framebuffers.
+	 */
+	public static enum SyncMode {
+		
+		/** Block the CPU with glFinish() until the GPU is done with everything. Slow, but works with any driver. */
+		Finish,
+		
+		/** Put a fence in the JavaFX context and have the app context GPU wait for it. The CPU never blocks. */
+		Fence,
+		
+		/** Put a fence in the JavaFX context and have the CPU wait for it. Only blocks until the JavaFX commands are done. */
+		ClientFence;
+	}
+	
+	public static SyncMode syncMode = SyncMode.Fence;
+	
+	private static final long ClientFenceTimeoutNs = 1000*1000; // 1 ms
+	
+	// remember when the last few frames were posted, so we can tell how long their pulses took
+	private static final int PostTimesSize = 16; // must be a power of 2
+	private static final double PulseLatencyWeight = 0.1;
+	
+	/**
+	 * A render job waiting to run on the main thread.
+	 * <p>
+	 * Doubles as the completion handle for the job, so tracking completion doesn't cost any extra allocations.
+	 * Jobs can't be cancelled.
+	 * <p>
+	 * Frame markers never leave the renderer, so they get recycled. Other jobs don't, since callers can hang on to them.
+	 */
+	public class Job extends MPSCQueue.Node implements Future<Void> {
+		
+		private Runnable runnable;
+		private long frame;
+		private final boolean isFrameMarker;
+		private long endNs;
+		private volatile boolean isDone;
+		private Job nextFree;
+		
+		private Job(Runnable runnable, long frame, boolean isFrameMarker) {
+			this.runnable = runnable;
+			this.frame = frame;
+			this.isFrameMarker = isFrameMarker;
+			this.endNs = 0;
+			this.isDone = false;
+		}
+		
+		/**
+		 * Returns the number of the frame whose pulse submitted this job.
+		 */
+		public long getFrame() {
+			return frame;
+		}
+		
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+		
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+		
+		@Override
+		public boolean isDone() {
+			return isDone;
+		}
+		
+		@Override
+		public Void get()
+		throws InterruptedException {
+			waitFor(() -> isDone, Long.MAX_VALUE);
+			return null;
+		}
+		
+		@Override
+		public Void get(long timeout, TimeUnit unit)
+		throws InterruptedException, TimeoutException {
+			if (!waitFor(() -> isDone, unit.toNanos(timeout))) {
+				throw new TimeoutException();
+			}
+			return null;
+		}
+	}
+	
+	private static interface Condition {
+		boolean isMet();
+	}
+	
+	private MPSCQueue<Job> jobQueue;
+	private final AtomicReference<Job> freeMarkers;
+	private Job lastPolled;
 	private List<JFXGLPopupWindow> popups;
+	private SyncMode fenceMode;
+	private long fence;
+	private Thread mainThread;
+	private long postedFrame;
+	private volatile long pulsingFrame;
+	private volatile long renderedFrame;
+	private final Object waitLock;
+	private volatile int numWaiters;
+	private volatile boolean isMainWaiting;
+	private final long[] postTimesNs;
+	private long pulseLatencyNs;
+	private final GPUTimer jobsTimer;
+	private final GPUTimer mainCompositeTimer;
 
 	public JFXGLRenderer() {
 		super();
 		
-		jobQueue = new ArrayList<>();
-		jobs = new ArrayList<>();
+		jobQueue = new MPSCQueue<>();
+		freeMarkers = new AtomicReference<>(null);
+		lastPolled = null;
 		popups = new ArrayList<>();
+		fenceMode = null;
+		fence = 0;
+		mainThread = null;
+		postedFrame = 0;
+		pulsingFrame = 0;
+		renderedFrame = 0;
+		waitLock = new Object();
+		numWaiters = 0;
+		isMainWaiting = false;
+		postTimesNs = new long[PostTimesSize];
+		pulseLatencyNs = 0;
+		jobsTimer = new GPUTimer(FrameStats.Phase.GPUJobs);
+		mainCompositeTimer = new GPUTimer(FrameStats.Phase.GPUMainComposite);
 		
 		// install to the QuantumRenderer singleton
 		QuantumRenderer.instanceReference.set(this);
 	}
 	
 	@Override
-	public Future<?> submit(Runnable job) {
+	@CalledByMainAndEventsThreads
+	public Job submit(Runnable runnable) {
 		
 		// relay runnable job to main thread
-		synchronized (jobQueue) {
-			jobQueue.add(job);
-		}
+		// NOTE: this never blocks, so the events thread never waits on the main thread
+		Job job = new Job(runnable, pulsingFrame, false);
+		offer(job);
+		return job;
+	}
+	
+	@CalledByMainAndEventsThreads
+	private void offer(Job job) {
+		
+		jobQueue.offer(job);
 		
-		// no one uses the Future instance
-		return null;
+		// wake up the main thread if it's waiting for jobs
+		if (isMainWaiting) {
+			LockSupport.unpark(mainThread);
+		}
 	}
 	
 	@Override
@@ -60,46 +207,390 @@ public class JFXGLRenderer extends QuantumRenderer {
 		// do nothing
 	}
 	
-	public void render() {
+	/**
+	 * Reserves the number of the next frame, for a pulse about to be posted to the events thread.
+	 */
+	@CalledByMainThread
+	public long postFrame() {
+		postedFrame++;
+		postTimesNs[(int)(postedFrame & (PostTimesSize - 1))] = System.nanoTime();
+		return postedFrame;
+	}
+	
+	/**
+	 * Call at the start of a pulse, before any render jobs for the frame get submitted.
+	 */
+	@CalledByEventsThread
+	public void beginFrame(long frame) {
+		pulsingFrame = frame;
+	}
+	
+	/**
+	 * Call at the end of a pulse, after all the render jobs for the frame have been submitted.
+	 */
+	@CalledByEventsThread
+	public void endFrame(long frame) {
+		
+		// put a marker in the queue, so the main thread knows when it's seen all the jobs for this frame
+		Job marker = takeMarker(frame);
+		marker.endNs = System.nanoTime();
+		offer(marker);
+	}
+	
+	/**
+	 * Gets a frame marker from the free list, or makes a new one if the list is empty.
+	 */
+	@CalledByEventsThread
+	private Job takeMarker(long frame) {
 		
-		// grab all the jobs from the queue
-		jobs.clear();
-		synchronized (jobQueue) {
-			jobs.addAll(jobQueue);
-			jobQueue.clear();
+		// NOTE: only the events thread pops, so the free list can't have ABA problems
+		while (true) {
+			Job marker = freeMarkers.get();
+			if (marker == null) {
+				return new Job(null, frame, true);
+			}
+			if (freeMarkers.compareAndSet(marker, marker.nextFree)) {
+				marker.nextFree = null;
+				marker.frame = frame;
+				marker.endNs = 0;
+				marker.isDone = false;
+				return marker;
+			}
 		}
+	}
+	
+	@CalledByMainThread
+	private void recycleMarker(Job marker) {
+		while (true) {
+			Job next = freeMarkers.get();
+			marker.nextFree = next;
+			if (freeMarkers.compareAndSet(next, marker)) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of the next frame that will pulse.
+	 * Changes made to the scene graph before calling this will be rendered by that frame.
+	 */
+	@CalledByEventsThread
+	public long getNextFrame() {
+		return pulsingFrame + 1;
+	}
+	
+	/**
+	 * Returns the number of the latest frame whose render jobs have all run on the main thread.
+	 */
+	@CalledByMainAndEventsThreads
+	public long getRenderedFrame() {
+		return renderedFrame;
+	}
+	
+	/**
+	 * Returns a moving average of how long pulses take, from posting the pulse to the events thread
+	 * until all the render jobs for the frame have been submitted.
+	 */
+	@CalledByMainThread
+	public long getPulseLatencyNs() {
+		return pulseLatencyNs;
+	}
+	
+	@CalledByMainAndEventsThreads
+	public boolean isFrameRendered(long frame) {
+		return renderedFrame >= frame;
+	}
+	
+	/**
+	 * Waits until all the render jobs for the frame have run on the main thread.
+	 * Don't call this from the main thread, since only the main thread runs render jobs,
+	 * or from the events thread, since the events thread is the one that pulses the frame.
+	 * 
+	 * @return true if the frame was rendered, false if the timeout elapsed first
+	 */
+	@CalledByOtherThreads
+	public boolean waitForFrame(long frame, long timeout, TimeUnit unit)
+	throws InterruptedException {
 		
-		if (!jobs.isEmpty()) {
-			
-			// switch to JavaFX context for JavaFX rendering
-			JFXGLContexts.javafx.makeCurrent();
+		// the events thread would block the pulse it's waiting for
+		if (!isFrameRendered(frame) && Toolkit.getToolkit().isFxUserThread()) {
+			throw new IllegalStateException("can't wait for frames on the events thread, only the events thread pulses them");
+		}
+		
+		return waitFor(() -> renderedFrame >= frame, unit.toNanos(timeout));
+	}
+	
+	private boolean waitFor(Condition condition, long timeoutNs)
+	throws InterruptedException {
+		
+		// don't bother with locks if the condition is already met
+		if (condition.isMet()) {
+			return true;
+		}
+		
+		// the main thread would wait for itself forever
+		if (Thread.currentThread() == mainThread) {
+			throw new IllegalStateException("can't wait for render jobs on the main thread, only the main thread runs them");
+		}
 		
-			// run all the render jobs
-			for (Runnable job : jobs) {
-				job.run();
+		long stopNs = System.nanoTime() + timeoutNs;
+		synchronized (waitLock) {
+			numWaiters++;
+			try {
+				while (!condition.isMet()) {
+					long remainingNs = stopNs - System.nanoTime();
+					if (remainingNs <= 0) {
+						return false;
+					}
+					TimeUnit.NANOSECONDS.timedWait(waitLock, remainingNs);
+				}
+				return true;
+			} finally {
+				numWaiters--;
 			}
-			jobs.clear();
+		}
+	}
+	
+	/**
+	 * Runs all the pending JavaFX render jobs.
+	 * 
+	 * @param waitNs if positive, wait up to this long for the render jobs of the last posted frame
+	 * @return true if the JavaFX UI changed since the last call, and needs to be composited again
+	 */
+	@CalledByMainThread
+	@InAppGLContext
+	public boolean runJobs(long waitNs) {
+		
+		mainThread = Thread.currentThread();
+		
+		FrameStats stats = JFXGL.getFrameStats();
+		stats.begin(FrameStats.Phase.Jobs);
+		
+		boolean changed = false;
+		boolean completedAny = false;
+		
+		long waitFrame = postedFrame;
+		long stopNs = System.nanoTime() + waitNs;
+		
+		// NOTE: if a render job throws, still switch back to the app context and wake up the waiters,
+		// so the app gets its state back and nobody waits for jobs that will never finish
+		try {
+			
+			while (true) {
+				
+				Job job = jobQueue.poll();
+				if (job == null) {
+					
+					// are we done waiting for the posted frame?
+					if (waitNs <= 0 || renderedFrame >= waitFrame) {
+						break;
+					}
+					long remainingNs = stopNs - System.nanoTime();
+					if (remainingNs <= 0) {
+						break;
+					}
+					
+					// wait for the events thread to send more jobs
+					// NOTE: set the flag before checking the queue again, so we can't miss a wakeup
+					stats.begin(FrameStats.Phase.PacingWait);
+					isMainWaiting = true;
+					if (jobQueue.isEmpty()) {
+						LockSupport.parkNanos(this, remainingNs);
+					}
+					isMainWaiting = false;
+					stats.end(FrameStats.Phase.PacingWait);
+					continue;
+				}
+				
+				completedAny = true;
+				
+				// the queue keeps the last polled job as its stub, so only recycle a marker after the next poll
+				if (lastPolled != null && lastPolled.isFrameMarker) {
+					recycleMarker(lastPolled);
+				}
+				lastPolled = job;
+				
+				// all the jobs for this frame are done
+				if (job.isFrameMarker) {
+					job.isDone = true;
+					renderedFrame = job.frame;
+					updatePulseLatency(job, stats);
+					continue;
+				}
+				
+				// switch to JavaFX context for JavaFX rendering
+				if (!changed) {
+					changed = true;
+					JFXGLContexts.switchToJavaFX();
+					jobsTimer.begin();
+				}
+				
+				// run the render job
+				// NOTE: the queue hangs on to the last job, so don't hang on to the runnable too
+				Runnable runnable = job.runnable;
+				job.runnable = null;
+				try {
+					runnable.run();
+				} finally {
+					job.isDone = true;
+				}
+			}
+		} finally {
 			
-			// explicitly flush all rendering so we can sync between contexts
-			// (OSX driver doesn't seem to be smart enough to do this automatically)
-			GL11.glFinish();
+			if (changed) {
+				
+				jobsTimer.end();
+				
+				// explicitly sync all rendering between contexts
+				// (OSX driver doesn't seem to be smart enough to do this automatically)
+				// NOTE: in single-context mode, there's nothing to sync
+				if (!JFXGLContexts.isSingleContext()) {
+					signalSync();
+				}
+				
+				// switch back to app context for non-JavaFX rendering
+				JFXGLContexts.switchToApp();
+			}
 			
-			// switch back to app context for non-JavaFX rendering
-			JFXGLContexts.app.makeCurrent();
+			stats.end(FrameStats.Phase.Jobs);
+			
+			// let anyone waiting on render jobs know something happened
+			if (completedAny && numWaiters > 0) {
+				synchronized (waitLock) {
+					waitLock.notifyAll();
+				}
+			}
+		}
+		
+		// make sure the JavaFX rendering is done before we sample the framebuffers
+		stats.begin(FrameStats.Phase.SyncWait);
+		waitSync();
+		stats.end(FrameStats.Phase.SyncWait);
+		
+		// did the windows move around, even if JavaFX didn't draw anything?
+		// NOTE: check all the windows, so all the flags get cleared
+		if (JFXGLMainWindow.instance != null && JFXGLMainWindow.instance.checkChanged()) {
+			changed = true;
+		}
+		if (JFXGLPopupWindow.checkChanged()) {
+			changed = true;
 		}
 		
+		return changed;
+	}
+	
+	@CalledByMainThread
+	private void updatePulseLatency(Job marker, FrameStats stats) {
+		
+		// if the frame is really old, we don't remember when it was posted anymore
+		if (postedFrame - marker.frame >= PostTimesSize) {
+			return;
+		}
+		
+		long latencyNs = marker.endNs - postTimesNs[(int)(marker.frame & (PostTimesSize - 1))];
+		stats.record(FrameStats.Phase.PulseLatency, latencyNs);
+		
+		if (pulseLatencyNs == 0) {
+			pulseLatencyNs = latencyNs;
+		} else {
+			pulseLatencyNs += (long)((latencyNs - pulseLatencyNs)*PulseLatencyWeight);
+		}
+	}
+	
+	/**
+	 * Composites the JavaFX UI onto the current framebuffer.
+	 */
+	@CalledByMainThread
+	@InAppGLContext
+	public void composite() {
+		
+		FrameStats stats = JFXGL.getFrameStats();
+		
 		// copy the javafx framebuffer to the main framebuffer
 		if (JFXGLMainWindow.instance != null) {
+			stats.begin(FrameStats.Phase.MainComposite);
+			mainCompositeTimer.begin();
 			JFXGLMainWindow.instance.renderFramebuf();
+			mainCompositeTimer.end();
+			stats.end(FrameStats.Phase.MainComposite);
 		}
 		
 		// render any popup windows
 		// NOTE: JFXGLPopupWindow.windows is a synchronized list, so copy it to local storage before rendering
+		stats.begin(FrameStats.Phase.PopupComposite);
 		popups.clear();
 		popups.addAll(JFXGLPopupWindow.windows);
+		// each popup times its own composite, so clean up the timers of closed popups while the app context is current
+		JFXGLPopupWindow.cleanupClosedTimers();
 		for (JFXGLPopupWindow popup : popups) {
 			popup.renderFramebuf(JFXGLMainWindow.instance.getWidth(), JFXGLMainWindow.instance.getHeight());
 		}
 		popups.clear();
+		stats.end(FrameStats.Phase.PopupComposite);
+	}
+	
+	@CalledByMainThread
+	public void cleanup() {
+		
+		// NOTE: the jobs timer lives in the JavaFX context, which gets destroyed anyway
+		JFXGLContexts.app.makeCurrent();
+		mainCompositeTimer.cleanup();
+		JFXGLPopupWindow.cleanupTimers();
+	}
+	
+	@InJavaFXGLContext
+	private void signalSync() {
+		
+		SyncMode mode = syncMode;
+		if (mode != SyncMode.Finish && JFXGLContexts.javafx.getFeatures().hasSync) {
+			
+			fence = GL32.glFenceSync(GL32.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+			if (fence != 0) {
+				fenceMode = mode;
+				
+				// the fence has to actually get to the GPU before another context can wait on it
+				GL11.glFlush();
+				return;
+			}
+			
+			// couldn't make a fence for some reason, fall back to finish
+		}
+		
+		GL11.glFinish();
+	}
+	
+	@InAppGLContext
+	private void waitSync() {
+		
+		if (fence == 0) {
+			return;
+		}
+		
+		switch (fenceMode) {
+			
+			case Fence:
+				
+				// queue the wait on the GPU and keep going
+				GL32.glWaitSync(fence, 0, GL32.GL_TIMEOUT_IGNORED);
+				break;
+			
+			case ClientFence:
+				
+				// wait on the CPU, but only for the JavaFX commands
+				while (true) {
+					int result = GL32.glClientWaitSync(fence, GL32.GL_SYNC_FLUSH_COMMANDS_BIT, ClientFenceTimeoutNs);
+					if (result != GL32.GL_TIMEOUT_EXPIRED) {
+						break;
+					}
+				}
+				break;
+			
+			default:
+				throw new Error("unexpected fence mode: " + fenceMode);
+		}
+		
+		GL32.glDeleteSync(fence);
+		fence = 0;
+		fenceMode = null;
 	}
 }
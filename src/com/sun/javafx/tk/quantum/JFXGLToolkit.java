@@ -148,9 +148,12 @@ public class JFXGLToolkit extends QuantumToolkit {
 				animationRunning.set(false);
 			}
 			
+			long frame = renderer.postFrame();
 			Application.invokeLater(() -> {
+				renderer.beginFrame(frame);
 				firePulse();
 				paintCollector.renderAll();
+				renderer.endFrame(frame);
 			});
 		}
 	}
@@ -180,8 +183,16 @@ public class JFXGLToolkit extends QuantumToolkit {
 		return renderer.submitRenderJob(r);
 	}
 	
-	public void render() {
-		renderer.render();
+	public JFXGLRenderer getRenderer() {
+		return renderer;
+	}
+	
+	public boolean runRenderJobs(long waitNs) {
+		return renderer.runJobs(waitNs);
+	}
+	
+	public void composite() {
+		renderer.composite();
 	}
 	
 	@Override
@@ -0,0 +1,155 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package com.sun.prism.es2;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.system.MemoryUtil;
+
+import cuchaz.jfxgl.CalledByMainThread;
+
+/**
+ * Scratch direct buffers, shared by all the contexts.
+ * <p>
+ * Buffers come in power-of-two size classes. Released buffers are kept around for reuse,
+ * but once more than {@link #highWaterBytes} are sitting unused, the biggest ones get freed.
+ * <p>
+ * Only use the arena on the main thread. After {@link #cleanup()}, the next thread to use it becomes the new owner.
+ */
+public class BufferArena {
+	
+	public static final BufferArena shared = new BufferArena();
+	
+	private static final int MinClassBits = 10; // 1 KiB
+	private static final int MaxClassBits = 30; // 1 GiB
+	private static final int NumClasses = MaxClassBits - MinClassBits + 1;
+	
+	/** Keep at most this many bytes in unused buffers around for later */
+	public long highWaterBytes = 8*1024*1024; // 8 MiB
+	
+	private final List<List<ByteBuffer>> free;
+	private long allocatedBytes;
+	private long inUseBytes;
+	private Thread thread;
+	
+	public BufferArena() {
+		free = new ArrayList<>(NumClasses);
+		for (int i=0; i<NumClasses; i++) {
+			free.add(new ArrayList<>());
+		}
+		allocatedBytes = 0;
+		inUseBytes = 0;
+		thread = null;
+	}
+	
+	private static int getSizeClass(int numBytes) {
+		int bits = 32 - Integer.numberOfLeadingZeros(Math.max(numBytes, 1) - 1);
+		return Math.max(bits, MinClassBits) - MinClassBits;
+	}
+	
+	private static int getClassBytes(int sizeClass) {
+		return 1 << (sizeClass + MinClassBits);
+	}
+	
+	private void checkThread() {
+		if (thread == null) {
+			thread = Thread.currentThread();
+		} else if (thread != Thread.currentThread()) {
+			throw new IllegalStateException("buffer arena used on " + Thread.currentThread().getName() + ", but it belongs to " + thread.getName());
+		}
+	}
+	
+	/**
+	 * Returns a cleared buffer with room for at least this many bytes.
+	 * Give it back with {@link #release(ByteBuffer)} when you're done with it.
+	 */
+	@CalledByMainThread
+	public ByteBuffer acquire(int numBytes) {
+		
+		checkThread();
+		
+		int sizeClass = getSizeClass(numBytes);
+		if (sizeClass >= NumClasses) {
+			throw new IllegalArgumentException("buffer too big: " + numBytes + " bytes");
+		}
+		
+		// reuse a free buffer if we can
+		ByteBuffer buf;
+		List<ByteBuffer> classFree = free.get(sizeClass);
+		if (!classFree.isEmpty()) {
+			buf = classFree.remove(classFree.size() - 1);
+		} else {
+			buf = MemoryUtil.memAlloc(getClassBytes(sizeClass));
+			allocatedBytes += buf.capacity();
+		}
+		
+		inUseBytes += buf.capacity();
+		buf.clear();
+		return buf;
+	}
+	
+	@CalledByMainThread
+	public void release(ByteBuffer buf) {
+		
+		checkThread();
+		
+		int sizeClass = getSizeClass(buf.capacity());
+		if (sizeClass >= NumClasses || getClassBytes(sizeClass) != buf.capacity()) {
+			throw new IllegalArgumentException("buffer didn't come from this arena");
+		}
+		
+		inUseBytes -= buf.capacity();
+		free.get(sizeClass).add(buf);
+		
+		trim(highWaterBytes);
+	}
+	
+	/**
+	 * Frees unused buffers, biggest first, until no more than this many bytes are unused.
+	 */
+	@CalledByMainThread
+	public void trim(long maxUnusedBytes) {
+		for (int i=NumClasses - 1; i>=0 && getUnusedBytes() > maxUnusedBytes; i--) {
+			List<ByteBuffer> classFree = free.get(i);
+			while (!classFree.isEmpty() && getUnusedBytes() > maxUnusedBytes) {
+				ByteBuffer buf = classFree.remove(classFree.size() - 1);
+				allocatedBytes -= buf.capacity();
+				MemoryUtil.memFree(buf);
+			}
+		}
+	}
+	
+	/**
+	 * Frees all the unused buffers, and forgets the owner thread, so the next run can use the arena on a different thread.
+	 * The GC never frees the arena's memory, so call this when shutting down.
+	 */
+	@CalledByMainThread
+	public void cleanup() {
+		trim(0);
+		thread = null;
+	}
+	
+	/** Total bytes currently allocated by the arena, in use or not */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+	
+	/** Bytes in buffers that have been acquired, but not released yet */
+	public long getInUseBytes() {
+		return inUseBytes;
+	}
+	
+	/** Bytes in released buffers kept around for reuse */
+	public long getUnusedBytes() {
+		return allocatedBytes - inUseBytes;
+	}
+}
@@ -0,0 +1,101 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package com.sun.prism.es2;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GLCapabilities;
+
+/**
+ * What a context can do, looked up once when the context is first made current.
+ * <p>
+ * Each feature flag is true if the core version has the feature or the extension is there.
+ * Core profiles (eg on OSX) don't list extensions that were promoted to core, so always check both.
+ */
+public class GLFeatures {
+	
+	public final GLCapabilities caps;
+	
+	public final boolean hasPixelBufferObjects;
+	public final boolean hasSync;
+	public final boolean hasTextureSwizzle;
+	public final boolean hasTimerQuery;
+	public final boolean hasProgramBinary;
+	public final boolean hasBufferStorage;
+	public final boolean hasTextureStorage;
+	public final boolean hasCopyImage;
+	public final boolean hasDirectStateAccess;
+	public final boolean hasParallelShaderCompile;
+	
+	private final Map<String,Boolean> extensions;
+	
+	public GLFeatures(GLCapabilities caps) {
+		
+		this.caps = caps;
+		
+		// LWJGL has no string-based lookup, so read all the flags with reflection, but only this once
+		extensions = new HashMap<>();
+		for (Field field : GLCapabilities.class.getFields()) {
+			if (field.getType() == boolean.class && !Modifier.isStatic(field.getModifiers())) {
+				try {
+					extensions.put(field.getName(), field.getBoolean(caps));
+				} catch (IllegalAccessException ex) {
+					throw new RuntimeException("can't check extension", ex);
+				}
+			}
+		}
+		
+		hasPixelBufferObjects = caps.OpenGL21 || caps.GL_ARB_pixel_buffer_object;
+		hasSync = caps.OpenGL32 || caps.GL_ARB_sync;
+		hasTextureSwizzle = caps.OpenGL33 || caps.GL_ARB_texture_swizzle;
+		hasTimerQuery = caps.OpenGL33 || caps.GL_ARB_timer_query;
+		hasProgramBinary = caps.OpenGL41 || caps.GL_ARB_get_program_binary;
+		hasBufferStorage = caps.OpenGL44 || caps.GL_ARB_buffer_storage;
+		hasTextureStorage = caps.OpenGL42 || caps.GL_ARB_texture_storage;
+		hasCopyImage = caps.OpenGL43 || caps.GL_ARB_copy_image;
+		hasDirectStateAccess = caps.OpenGL45 || caps.GL_ARB_direct_state_access;
+		
+		// NOTE: this version of LWJGL only knows about the ARB version, so look for the KHR version in the driver's list
+		hasParallelShaderCompile = caps.GL_ARB_parallel_shader_compile || queryExtension("GL_KHR_parallel_shader_compile");
+	}
+	
+	/**
+	 * Asks the driver directly, for extensions LWJGL doesn't have a flag for. Needs the context to be current.
+	 */
+	private boolean queryExtension(String name) {
+		
+		if (!caps.OpenGL30) {
+			String names = GL11.glGetString(GL11.GL_EXTENSIONS);
+			return names != null && Arrays.asList(names.split(" ")).contains(name);
+		}
+		
+		int num = GL11.glGetInteger(GL30.GL_NUM_EXTENSIONS);
+		for (int i=0; i<num; i++) {
+			if (name.equals(GL30.glGetStringi(GL11.GL_EXTENSIONS, i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @param name the name of the extension (eg GL_ARB_sync) or core version (eg OpenGL32)
+	 */
+	public boolean isExtensionSupported(String name) {
+		Boolean val = extensions.get(name);
+		return val != null && val;
+	}
+}
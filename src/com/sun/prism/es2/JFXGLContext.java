@@ -9,6 +9,7 @@
  *************************************************************************/
 package com.sun.prism.es2;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -17,9 +18,15 @@ import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.lwjgl.BufferUtils;
 import org.lwjgl.glfw.GLFW;
+import org.lwjgl.opengl.ARBParallelShaderCompile;
 import org.lwjgl.opengl.GL;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL12;
@@ -27,28 +34,60 @@ import org.lwjgl.opengl.GL13;
 import org.lwjgl.opengl.GL14;
 import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL21;
 import org.lwjgl.opengl.GL30;
 import org.lwjgl.opengl.GL33;
 import org.lwjgl.opengl.GL41;
+import org.lwjgl.opengl.GL45;
 import org.lwjgl.opengl.GLCapabilities;
 import org.lwjgl.system.MemoryUtil;
 
 import com.sun.prism.Texture.WrapMode;
 import com.sun.prism.paint.Color;
 
+import cuchaz.jfxgl.CalledByMainThread;
+import cuchaz.jfxgl.FrameStats;
+import cuchaz.jfxgl.GLShadow;
 import cuchaz.jfxgl.GLState;
+import cuchaz.jfxgl.JFXGL;
 import sun.misc.IOUtils;
 
 public class JFXGLContext extends GLContext {
 	
-	// TODO: use caching to avoid re-setting state when it's not necessary
+	/**
+	 * If true, quad batches whose texture coordinates are all in [0,1] get uploaded in a packed format,
+	 * with texture coordinates as normalized shorts, and colors interleaved with the rest of the vertex.
+	 * That's 24 bytes per vertex instead of 32, and one region of the vertex buffer instead of two.
+	 */
+	public static boolean usePackedVertices = false;
+	
+	/**
+	 * If true, large texture uploads get copied into a ring of pixel buffer objects,
+	 * so the upload happens asynchronously instead of stalling the main thread.
+	 */
+	public static boolean usePixelBuffers = true;
+	
+	/**
+	 * If not null, linked shader programs get saved in this folder as driver-specific binaries,
+	 * so later runs can skip compiling Prism's shaders. Needs OpenGL 4.1 or ARB_get_program_binary.
+	 */
+	public static File programCacheDir = null;
+	
+	/**
+	 * If true, JFXGL's own textures, framebuffers, and vertex arrays get edited with direct state access
+	 * (OpenGL 4.5 or ARB_direct_state_access) when the driver has it, instead of binding them first.
+	 */
+	public static boolean useDirectStateAccess = true;
 	
 	public final long hwnd;
 	
 	private GLCapabilities caps = null;
+	private GLFeatures features = null;
 	private int majorVersion;
 	private int minorVersion;
 	
+	private final GLShadow shadow = new GLShadow();
+	
 	/**
 	 * Wrap an existing OpenGL context.
 	 *
@@ -107,9 +146,12 @@ public class JFXGLContext extends GLContext {
 		// if this is the first time, get the caps
 		if (caps == null) {
 			caps = GL.createCapabilities();
+			features = new GLFeatures(caps);
 
 			majorVersion = GL11.glGetInteger(GL30.GL_MAJOR_VERSION);
 			minorVersion = GL11.glGetInteger(GL30.GL_MINOR_VERSION);
+			
+			initParallelCompile();
 		}
 	}
 	
@@ -119,16 +161,24 @@ public class JFXGLContext extends GLContext {
 	}
 	
 	public boolean isExtensionSupported(String sglExtStr) {
-		try {
-			
-			// sadly, LWJGL has no string-based lookup, so use reflection
-			return caps.getClass().getDeclaredField(sglExtStr).getBoolean(caps);
-			
-		} catch (NoSuchFieldException ex) {
-			return false;
-		} catch (IllegalAccessException ex) {
-			throw new RuntimeException("can't check extension", ex);
-		}
+		return features.isExtensionSupported(sglExtStr);
+	}
+	
+	/**
+	 * Returns what this context can do. Only available after the context has been made current once.
+	 */
+	public GLFeatures getFeatures() {
+		return features;
+	}
+	
+	/**
+	 * Returns true if objects can be edited with direct state access, ie without binding them.
+	 */
+	public boolean isDirectStateAccess() {
+		return useDirectStateAccess
+			&& features != null
+			&& features.hasDirectStateAccess
+			&& features.hasTextureStorage;
 	}
 	
 	/**
@@ -149,24 +199,150 @@ public class JFXGLContext extends GLContext {
 		return caps.forwardCompatible;
 	}
 	
+	/**
+	 * Returns the shadow of this context's GL state, or null if this context isn't current,
+	 * since the shadow only describes this context.
+	 */
+	public GLShadow getShadow() {
+		if (JFXGLContexts.getCurrent() != this) {
+			return null;
+		}
+		return shadow;
+	}
+	
+	/**
+	 * GL calls change the state of whatever context is current, even when they go through another
+	 * JFXGLContext (eg compositing with the JavaFX context's shaders in the app context),
+	 * so all the state tracking uses the shadow of the current context.
+	 */
+	private static GLShadow getCurrentShadow() {
+		JFXGLContext current = JFXGLContexts.getCurrent();
+		if (current == null) {
+			return null;
+		}
+		return current.shadow;
+	}
+	
+	/**
+	 * Returns true if the state needs to be sent to GL, ie if it changed, or there's no current context to track it.
+	 */
+	private static boolean changeState(int slot, int val) {
+		GLShadow shadow = getCurrentShadow();
+		return shadow == null || shadow.set(slot, val);
+	}
+	
+	private static boolean changeState(int slot, boolean val) {
+		return changeState(slot, val ? 1 : 0);
+	}
+	
+	private static boolean changeState(int slot, float val) {
+		return changeState(slot, Float.floatToRawIntBits(val));
+	}
+	
+	private static int getState(int slot) {
+		GLShadow shadow = getCurrentShadow();
+		if (shadow == null) {
+			return GLShadow.query(slot);
+		}
+		return shadow.get(slot);
+	}
+	
+	/**
+	 * Remembers state that changed as a side effect of something else.
+	 */
+	private static void noteState(int slot, int val) {
+		GLShadow shadow = getCurrentShadow();
+		if (shadow != null) {
+			shadow.set(slot, val);
+		}
+	}
+	
+	private static void forgetState(int slot) {
+		GLShadow shadow = getCurrentShadow();
+		if (shadow != null) {
+			shadow.forget(slot);
+		}
+	}
+	
+	/**
+	 * Like glEnable or glDisable, but skips the call if the capability is already set.
+	 */
+	public void setCapability(int cap, boolean val) {
+		int slot = GLShadow.getCapabilitySlot(cap);
+		if (slot < 0 || changeState(slot, val)) {
+			if (val) {
+				GL11.glEnable(cap);
+			} else {
+				GL11.glDisable(cap);
+			}
+		}
+	}
+	
 	@Override
 	public void activeTexture(int texUnit) {
-		GL13.glActiveTexture(GL13.GL_TEXTURE0 + texUnit);
+		if (changeState(GLShadow.ActiveTexture, GL13.GL_TEXTURE0 + texUnit)) {
+			GL13.glActiveTexture(GL13.GL_TEXTURE0 + texUnit);
+		}
 	}
 
 	@Override
 	public void bindFBO(int nativeFBOID) {
-		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, nativeFBOID);
+		boolean drawChanged = changeState(GLShadow.DrawFramebuffer, nativeFBOID);
+		boolean readChanged = changeState(GLShadow.ReadFramebuffer, nativeFBOID);
+		if (drawChanged && readChanged) {
+			GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, nativeFBOID);
+		} else if (drawChanged) {
+			GL30.glBindFramebuffer(GL30.GL_DRAW_FRAMEBUFFER, nativeFBOID);
+		} else if (readChanged) {
+			GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, nativeFBOID);
+		}
 	}
 
 	@Override
 	public void bindTexture(int texID) {
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texID);
+		int slot = GLShadow.getTextureSlot(getState(GLShadow.ActiveTexture) - GL13.GL_TEXTURE0);
+		if (slot < 0 || changeState(slot, texID)) {
+			GL11.glBindTexture(GL11.GL_TEXTURE_2D, texID);
+		}
 	}
 
+	/**
+	 * Binds the texture to the unit. With direct state access, the active texture unit doesn't change.
+	 */
+	public void bindTextureUnit(int texUnit, int texId) {
+		if (isDirectStateAccess()) {
+			int slot = GLShadow.getTextureSlot(texUnit);
+			if (slot < 0 || changeState(slot, texId)) {
+				GL45.glBindTextureUnit(texUnit, texId);
+			}
+		} else {
+			activeTexture(texUnit);
+			bindTexture(texId);
+		}
+	}
+	
+	private int getBoundTexture(int texUnit) {
+		int slot = GLShadow.getTextureSlot(texUnit);
+		if (slot < 0) {
+			return GLShadow.query(GLShadow.Texture2D + texUnit);
+		}
+		return getState(slot);
+	}
+	
 	@Override
 	public void blendFunc(int sFactor, int dFactor) {
-		GL11.glBlendFunc(translateScaleFactor(sFactor), translateScaleFactor(dFactor));
+		setBlendFactors(translateScaleFactor(sFactor), translateScaleFactor(dFactor));
+	}
+	
+	/**
+	 * Like glBlendFunc, ie with GL factors rather than Prism's, but skips the call if the factors are already set.
+	 */
+	public void setBlendFactors(int src, int dst) {
+		boolean srcChanged = changeState(GLShadow.BlendSrc, src);
+		boolean dstChanged = changeState(GLShadow.BlendDst, dst);
+		if (srcChanged || dstChanged) {
+			GL11.glBlendFunc(src, dst);
+		}
 	}
 	
 	private GLState clearBuffersState = new GLState(GLState.DepthMask, GLState.ScissorTest);
@@ -174,17 +350,17 @@ public class JFXGLContext extends GLContext {
 	@Override
 	public void clearBuffers(Color color, boolean clearColor, boolean clearDepth, boolean ignoreScissor) {
 		
-		clearBuffersState.backup();
+		clearBuffersState.backup(getCurrentShadow());
 		
 		if (ignoreScissor) {
-			GL11.glDisable(GL11.GL_SCISSOR_TEST);
+			setCapability(GL11.GL_SCISSOR_TEST, false);
 		}
 
 		int clearFlags = 0;
 
 		if (clearColor) {
 			clearFlags |= GL11.GL_COLOR_BUFFER_BIT;
-			GL11.glClearColor(
+			setClearColor(
 				color.getRedPremult(),
 				color.getGreenPremult(),
 				color.getBluePremult(),
@@ -195,16 +371,32 @@ public class JFXGLContext extends GLContext {
 		if (clearDepth) {
 			clearFlags |= GL11.GL_DEPTH_BUFFER_BIT;
 			
-			GL11.glDepthMask(true);
+			setDepthMask(true);
 			GL11.glClear(clearFlags);
 			
 		} else {
 			GL11.glClear(clearFlags);
 		}
 
-		clearBuffersState.restore();
+		clearBuffersState.restore(getCurrentShadow());
 	}
 
+	private void setClearColor(float r, float g, float b, float a) {
+		boolean rChanged = changeState(GLShadow.ClearColor + 0, r);
+		boolean gChanged = changeState(GLShadow.ClearColor + 1, g);
+		boolean bChanged = changeState(GLShadow.ClearColor + 2, b);
+		boolean aChanged = changeState(GLShadow.ClearColor + 3, a);
+		if (rChanged || gChanged || bChanged || aChanged) {
+			GL11.glClearColor(r, g, b, a);
+		}
+	}
+	
+	private void setDepthMask(boolean val) {
+		if (changeState(GLShadow.DepthMask, val)) {
+			GL11.glDepthMask(val);
+		}
+	}
+	
 	public int compileShader(URL url, boolean isVertex) {
 		try (InputStream in = url.openStream()) {
 			String source = new String(IOUtils.readFully(in, -1, true));
@@ -214,6 +406,26 @@ public class JFXGLContext extends GLContext {
 		}
 	}
 	
+	/**
+	 * Everything we know about a shader object we made.
+	 */
+	private static class ShaderInfo {
+		
+		public final String source;
+		public final boolean isVertex;
+		public final ShaderTranslator.Result translated;
+		public boolean isCompiled;
+		
+		public ShaderInfo(String source, boolean isVertex, ShaderTranslator.Result translated) {
+			this.source = source;
+			this.isVertex = isVertex;
+			this.translated = translated;
+			this.isCompiled = false;
+		}
+	}
+	
+	private Map<Integer,ShaderInfo> shaders = new HashMap<>();
+	
 	@Override
 	public int compileShader(String source, boolean isVertex) {
 		
@@ -224,16 +436,33 @@ public class JFXGLContext extends GLContext {
 			type = GL20.GL_FRAGMENT_SHADER;
 		}
 		
-		// try to massage JavaFX shaders into modern OpenG
-		if (source.startsWith("#ifdef GL_ES\n")) {
-			source = modernizeShader(source, isVertex);
-		}
+		// try to massage JavaFX shaders into modern OpenGL
+		ShaderTranslator.Result translated = translateShader(source, isVertex);
 		
 		int id = GL20.glCreateShader(type);
-		GL20.glShaderSource(id, source);
-		GL20.glCompileShader(id);
+		GL20.glShaderSource(id, translated.source);
+		shaders.put(id, new ShaderInfo(source, isVertex, translated));
+		
+		// if the program might come from the cache or the warm-up, wait to compile until we know we need to
+		// otherwise, start compiling now, but don't wait for the compiler, see finishProgram()
+		if (getProgramCache() == null && warmUpPrograms.isEmpty()) {
+			compileIfNeeded(id);
+		}
 		
-		boolean isSuccess = GL20.glGetShaderi(id, GL20.GL_COMPILE_STATUS) != GL11.GL_FALSE;
+		return id;
+	}
+	
+	private void compileIfNeeded(int shaderId) {
+		ShaderInfo info = shaders.get(shaderId);
+		if (info != null && !info.isCompiled) {
+			GL20.glCompileShader(shaderId);
+			info.isCompiled = true;
+		}
+	}
+	
+	private void checkShader(int shaderId) {
+		
+		boolean isSuccess = GL20.glGetShaderi(shaderId, GL20.GL_COMPILE_STATUS) != GL11.GL_FALSE;
 		if (!isSuccess) {
 			
 			// get debug info
@@ -242,49 +471,57 @@ public class JFXGLContext extends GLContext {
 			
 			// show the compiler log
 			buf.append("\nCOMPILER LOG:\n");
-			buf.append(GL20.glGetShaderInfoLog(id, 4096));
+			buf.append(GL20.glGetShaderInfoLog(shaderId, 4096));
 			
 			// show the source with correct line numbering
-			buf.append("\nSOURCE:\n");
-			String[] lines = source.split("\\n");
-			for (int i=0; i<lines.length; i++) {
-				buf.append(String.format("%4d: ", i + 1));
-				buf.append(lines[i]);
-				buf.append("\n");
+			ShaderInfo info = shaders.get(shaderId);
+			if (info != null) {
+				buf.append("\nSOURCE:\n");
+				String[] lines = info.translated.source.split("\\n");
+				for (int i=0; i<lines.length; i++) {
+					buf.append(String.format("%4d: ", i + 1));
+					buf.append(lines[i]);
+					buf.append("\n");
+				}
 			}
 			
 			throw new RuntimeException(buf.toString());
 		}
-		
-		return id;
 	}
 	
-	private String modernizeShader(String source, boolean isVertex) {
-		
-		// replace attribute with in
-		source = source.replaceAll("attribute ", "in ");
+	// Prism compiles the same shaders in every context, so only translate each one once
+	// NOTE: all contexts compile shaders on the main thread
+	private static final Map<String,ShaderTranslator.Result> translatedShaders = new HashMap<>();
+	
+	private ShaderTranslator.Result translateShader(String source, boolean isVertex) {
 		
-		if (isVertex) {
-			
-			// replace varying with out
-			source = source.replaceAll("varying ", "out ");
-			
-		} else {
+		// NOTE: the translation depends on the shader type and on texture swizzle support
+		boolean alphaInShader = !features.hasTextureSwizzle;
+		String key = (isVertex ? "v" : "f") + (alphaInShader ? "a" : "-") + source;
+		ShaderTranslator.Result translated = translatedShaders.get(key);
+		if (translated == null) {
 			
-			// replace varying with in
-			source = source.replaceAll("varying ", "in ");
-			
-			// add an out var for the color
-			source = source.replaceAll("gl_FragColor", "outFragColor");
-			source = "out vec4 outFragColor;\n\n" + source;
-			
-			// replace calls to texture2D with texture
-			source = source.replaceAll("texture2D", "texture");
+			// use the translation from the build if there is one, otherwise translate it now
+			if (ShaderTranslator.needsTranslation(source)) {
+				translated = ShaderTranslator.loadPretranslated(source, isVertex, alphaInShader);
+			}
+			if (translated == null) {
+				translated = ShaderTranslator.translate(source, isVertex, alphaInShader);
+			}
+			translatedShaders.put(key, translated);
 		}
-		
-		source = "#version 150\n\n" + source;
-		
-		return source;
+		return translated;
+	}
+	
+	private ProgramCache programCache = null;
+	private boolean isProgramCacheChecked = false;
+	
+	private ProgramCache getProgramCache() {
+		if (!isProgramCacheChecked) {
+			isProgramCacheChecked = true;
+			programCache = ProgramCache.makeIfSupported(features, programCacheDir);
+		}
+		return programCache;
 	}
 
 	@Override
@@ -317,45 +554,272 @@ public class JFXGLContext extends GLContext {
 			}
 
 			// remove garbage from newly-allocated buffers
-			createFBOState.backup();
+			createFBOState.backup(getCurrentShadow());
 			clearBuffers(Color.TRANSPARENT, true, false, true);
-			createFBOState.restore();
+			createFBOState.restore(getCurrentShadow());
 		}
 		
 		return id;
 	}
 
+	/**
+	 * A program whose compile and link have been sent to the driver, but might not be finished yet.
+	 */
+	private static class PendingProgram {
+		
+		public final int id;
+		public final int vertexShaderId;
+		public final int[] fragmentShaderIds;
+		
+		/** where to save the binary after linking, or null if it came from the cache or there's no cache */
+		public final String cacheKey;
+		
+		public PendingProgram(int id, int vertexShaderId, int[] fragmentShaderIds, String cacheKey) {
+			this.id = id;
+			this.vertexShaderId = vertexShaderId;
+			this.fragmentShaderIds = fragmentShaderIds;
+			this.cacheKey = cacheKey;
+		}
+	}
+	
+	// programs compiled ahead of time by warmUp(), keyed by their translated sources and attributes
+	private Map<String,PendingProgram> warmUpPrograms = new HashMap<>();
+	
+	// every program JavaFX made in this context, for the next warm-up
+	private ShaderSet shaderSet = new ShaderSet();
+	
+	private void initParallelCompile() {
+		
+		if (!features.hasParallelShaderCompile) {
+			return;
+		}
+		
+		// let the driver compile shaders on as many threads as it likes
+		// NOTE: the KHR version compiles in parallel by default, and uses the same completion status query
+		if (features.isExtensionSupported("GL_ARB_parallel_shader_compile")) {
+			ARBParallelShaderCompile.glMaxShaderCompilerThreadsARB(0xffffffff);
+		}
+	}
+	
+	private List<String> getTranslatedSources(int vertexShaderId, int[] fragmentShaderIds) {
+		List<String> sources = new ArrayList<>();
+		sources.add(shaders.get(vertexShaderId).translated.source);
+		for (int fragmentShaderId : fragmentShaderIds) {
+			sources.add(shaders.get(fragmentShaderId).translated.source);
+		}
+		return sources;
+	}
+	
+	private static String makeProgramKey(List<String> sources, String[] attrs, int[] indices) {
+		StringBuilder buf = new StringBuilder();
+		for (String source : sources) {
+			buf.append(source);
+			buf.append('\0');
+		}
+		for (int i=0; i<attrs.length; i++) {
+			buf.append(attrs[i]);
+			buf.append('=');
+			buf.append(indices[i]);
+			buf.append('\0');
+		}
+		return buf.toString();
+	}
+
 	@Override
 	public int createProgram(int vertexShaderId, int[] fragmentShaderIds, String[] attrs, int[] indices) {
 		
-		// build the shader program
+		assert (attrs.length == indices.length);
+		
+		// remember the program for the next warm-up
+		List<String> fragmentSources = new ArrayList<>();
+		for (int fragmentShaderId : fragmentShaderIds) {
+			fragmentSources.add(shaders.get(fragmentShaderId).source);
+		}
+		shaderSet.add(new ShaderSet.Program(shaders.get(vertexShaderId).source, fragmentSources, attrs, indices));
+		
+		List<String> sources = getTranslatedSources(vertexShaderId, fragmentShaderIds);
+		
+		// use the warmed-up program if there is one
+		PendingProgram warmedUp = warmUpPrograms.remove(makeProgramKey(sources, attrs, indices));
+		if (warmedUp != null) {
+			boolean isSuccess = GL20.glGetProgrami(warmedUp.id, GL20.GL_LINK_STATUS) == GL11.GL_TRUE;
+			if (isSuccess) {
+				finishProgram(warmedUp);
+				deleteShaders(warmedUp);
+				findAlphaSamplers(warmedUp.id, fragmentShaderIds);
+				return warmedUp.id;
+			}
+			
+			// something went wrong, so build the program again from JavaFX's shaders to report the error
+			deleteShaders(warmedUp);
+			deleteProgram(warmedUp.id);
+		}
+		
+		PendingProgram program = startProgram(vertexShaderId, fragmentShaderIds, attrs, indices, sources);
+		finishProgram(program);
+		findAlphaSamplers(program.id, fragmentShaderIds);
+		
+		/* TODO: move this check to another function call
+		 * apparently we need a bound VAO to validate the shader program
+		GL20.glValidateProgram(id);
+		isSuccess = GL20.glGetProgrami(id, GL20.GL_VALIDATE_STATUS) == GL11.GL_TRUE;
+		if (!isSuccess) {
+			throw new RuntimeException("Shader program did not validate:\n" + GL20.glGetProgramInfoLog(id, 4096));
+		}
+		*/
+		
+		return program.id;
+	}
+	
+	/**
+	 * Loads the program from the cache, or sends its compile and link to the driver.
+	 * Doesn't wait for the driver to finish.
+	 */
+	private PendingProgram startProgram(int vertexShaderId, int[] fragmentShaderIds, String[] attrs, int[] indices, List<String> sources) {
+		
 		int id = GL20.glCreateProgram();
+		
+		// try the program cache first
+		ProgramCache cache = getProgramCache();
+		String cacheKey = null;
+		if (cache != null) {
+			cacheKey = cache.makeKey(sources, attrs, indices);
+			if (cache.load(id, cacheKey)) {
+				return new PendingProgram(id, vertexShaderId, fragmentShaderIds, null);
+			}
+			
+			// start over with a fresh program, in case the failed load left anything behind
+			GL20.glDeleteProgram(id);
+			id = GL20.glCreateProgram();
+		}
+		
+		// build the shader program
+		compileIfNeeded(vertexShaderId);
 		GL20.glAttachShader(id, vertexShaderId);
 		for (int fragmentShaderId : fragmentShaderIds) {
+			compileIfNeeded(fragmentShaderId);
 			GL20.glAttachShader(id, fragmentShaderId);
 		}
 		
-		assert (attrs.length == indices.length);
 		for (int i=0; i<attrs.length; i++) {
 			GL20.glBindAttribLocation(id, indices[i], attrs[i]);
 		}
 		
+		if (cacheKey != null) {
+			cache.prepare(id);
+		}
 		GL20.glLinkProgram(id);
-		boolean isSuccess = GL20.glGetProgrami(id, GL20.GL_LINK_STATUS) == GL11.GL_TRUE;
+		
+		return new PendingProgram(id, vertexShaderId, fragmentShaderIds, cacheKey);
+	}
+	
+	/**
+	 * Waits for the driver to finish the program, and throws if it didn't link.
+	 */
+	private void finishProgram(PendingProgram program) {
+		
+		// NOTE: this is the first time we ask the driver about the program, so this waits for the compiler
+		boolean isSuccess = GL20.glGetProgrami(program.id, GL20.GL_LINK_STATUS) == GL11.GL_TRUE;
 		if (!isSuccess) {
-			throw new RuntimeException("Shader program did not link:\n" + GL20.glGetProgramInfoLog(id, 4096));
+			
+			// was it the compiler or the linker?
+			checkShader(program.vertexShaderId);
+			for (int fragmentShaderId : program.fragmentShaderIds) {
+				checkShader(fragmentShaderId);
+			}
+			throw new RuntimeException("Shader program did not link:\n" + GL20.glGetProgramInfoLog(program.id, 4096));
 		}
 		
-		/* TODO: move this check to another function call
-		 * apparently we need a bound VAO to validate the shader program
-		GL20.glValidateProgram(id);
-		isSuccess = GL20.glGetProgrami(id, GL20.GL_VALIDATE_STATUS) == GL11.GL_TRUE;
-		if (!isSuccess) {
-			throw new RuntimeException("Shader program did not validate:\n" + GL20.glGetProgramInfoLog(id, 4096));
+		if (program.cacheKey != null) {
+			getProgramCache().save(program.id, program.cacheKey);
 		}
-		*/
+	}
+	
+	private void deleteShaders(PendingProgram program) {
+		deleteShader(program.vertexShaderId);
+		for (int fragmentShaderId : program.fragmentShaderIds) {
+			deleteShader(fragmentShaderId);
+		}
+	}
+	
+	/**
+	 * Starts compiling the programs in the set, so they're ready (or at least closer to ready) when JavaFX asks for them.
+	 * Only waits for the driver if it can't compile shaders in parallel.
+	 * <p>
+	 * This context must be current.
+	 */
+	@CalledByMainThread
+	public void warmUp(ShaderSet set) {
+		for (ShaderSet.Program program : set.getPrograms()) {
+			
+			int vertexShaderId = compileShader(program.vertexSource, true);
+			int[] fragmentShaderIds = new int[program.fragmentSources.size()];
+			for (int i=0; i<fragmentShaderIds.length; i++) {
+				fragmentShaderIds[i] = compileShader(program.fragmentSources.get(i), false);
+			}
+			
+			List<String> sources = getTranslatedSources(vertexShaderId, fragmentShaderIds);
+			String key = makeProgramKey(sources, program.attrs, program.indices);
+			if (warmUpPrograms.containsKey(key)) {
+				deleteShader(vertexShaderId);
+				for (int fragmentShaderId : fragmentShaderIds) {
+					deleteShader(fragmentShaderId);
+				}
+				continue;
+			}
+			
+			warmUpPrograms.put(key, startProgram(vertexShaderId, fragmentShaderIds, program.attrs, program.indices, sources));
+		}
+	}
+	
+	/**
+	 * Returns true when the driver has finished all the warm-up programs that JavaFX hasn't used yet.
+	 * Never waits for the driver. Without parallel shader compiles, this is always true.
+	 * <p>
+	 * This context must be current.
+	 */
+	@CalledByMainThread
+	public boolean isWarmUpDone() {
+		if (features.hasParallelShaderCompile) {
+			for (PendingProgram program : warmUpPrograms.values()) {
+				if (GL20.glGetProgrami(program.id, ARBParallelShaderCompile.GL_COMPLETION_STATUS_ARB) == GL11.GL_FALSE) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns every shader program JavaFX made in this context so far.
+	 * Save it, and pass it to {@link #warmUp(ShaderSet)} on the next run.
+	 */
+	public ShaderSet getShaderSet() {
+		return shaderSet;
+	}
+	
+	private void findAlphaSamplers(int programId, int[] fragmentShaderIds) {
 		
-		return id;
+		// find the alpha flags for all the rewritten fragment shaders, since the program could link more than one
+		List<String> samplers = null;
+		for (int fragmentShaderId : fragmentShaderIds) {
+			List<String> shaderSamplers = shaders.get(fragmentShaderId).translated.samplers;
+			if (shaderSamplers == null) {
+				continue;
+			}
+			if (samplers == null) {
+				samplers = new ArrayList<>();
+			}
+			for (String sampler : shaderSamplers) {
+				if (!samplers.contains(sampler)) {
+					samplers.add(sampler);
+				}
+			}
+		}
+		
+		if (samplers != null) {
+			programAlphaSamplers.put(programId, new AlphaSamplers(programId, samplers));
+		}
 	}
 
 	@Override
@@ -366,8 +830,8 @@ public class JFXGLContext extends GLContext {
 			return 0;
 		}
 
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texId);
-
+		bindTexture(texId);
+		
 		// make the texture
 		clearGLErrors();
 		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, width, height, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, 0);
@@ -378,12 +842,43 @@ public class JFXGLContext extends GLContext {
 			return 0;
 		}
 		
-		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
-		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
+		TextureState state = resetTextureState(texId);
+		state.setFilters(GL11.GL_LINEAR, GL11.GL_LINEAR);
 		
 		return texId;
 	}
 
+	/**
+	 * Like {@link #createTexture(int, int)}, but uses direct state access when it can, so the texture doesn't get bound.
+	 * Prism expects new textures to be bound, so this is only for JFXGL's own textures.
+	 */
+	public int createUnboundTexture(int width, int height) {
+		
+		if (!isDirectStateAccess()) {
+			return createTexture(width, height);
+		}
+		
+		int texId = GL45.glCreateTextures(GL11.GL_TEXTURE_2D);
+		if (texId == 0) {
+			return 0;
+		}
+		
+		// make the texture
+		clearGLErrors();
+		GL45.glTextureStorage2D(texId, 1, GL11.GL_RGBA8, width, height);
+		
+		// if something bad happened, delete the texture
+		if (hasGLError()) {
+			GL11.glDeleteTextures(texId);
+			return 0;
+		}
+		
+		TextureState state = resetTextureState(texId);
+		state.setFilters(GL11.GL_LINEAR, GL11.GL_LINEAR);
+		
+		return texId;
+	}
+	
 	@Override
 	public void deleteRenderBuffer(int dbID) {
 		throw new UnsupportedOperationException("IMPLEMENT ME!");
@@ -392,21 +887,35 @@ public class JFXGLContext extends GLContext {
 	@Override
 	public void deleteFBO(int fboId) {
 		GL30.glDeleteFramebuffers(fboId);
+		GLShadow shadow = getCurrentShadow();
+		if (shadow != null) {
+			shadow.onDeleted(GLShadow.DrawFramebuffer, 2, fboId);
+		}
 	}
 
 	@Override
 	public void deleteShader(int shaderId) {
+		shaders.remove(shaderId);
 		GL20.glDeleteShader(shaderId);
 	}
 	
 	public void deleteProgram(int programId) {
+		programAlphaSamplers.remove(programId);
+		programUniforms.remove(programId);
+		if (programId == currentProgram) {
+			forgetCurrentProgram();
+		}
 		GL20.glDeleteProgram(programId);
 	}
 
 	@Override
 	public void blitFBO(int srcFboId, int dstFboId, int srcX0, int srcY0, int srcX1, int srcY1, int dstX0, int dstY0, int dstX1, int dstY1) {
-		GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, srcFboId);
-		GL30.glBindFramebuffer(GL30.GL_DRAW_FRAMEBUFFER, dstFboId);
+		if (changeState(GLShadow.ReadFramebuffer, srcFboId)) {
+			GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, srcFboId);
+		}
+		if (changeState(GLShadow.DrawFramebuffer, dstFboId)) {
+			GL30.glBindFramebuffer(GL30.GL_DRAW_FRAMEBUFFER, dstFboId);
+		}
 		GL30.glBlitFramebuffer(
 			srcX0, srcY0,
 			srcX1, srcY1,
@@ -419,7 +928,12 @@ public class JFXGLContext extends GLContext {
 
 	@Override
 	public void deleteTexture(int texId) {
+		clearTextureState(texId);
 		GL11.glDeleteTextures(texId);
+		GLShadow shadow = getCurrentShadow();
+		if (shadow != null) {
+			shadow.onDeleted(GLShadow.Texture2D, GLShadow.NumTextureUnits, texId);
+		}
 	}
 
 	@Override
@@ -436,12 +950,14 @@ public class JFXGLContext extends GLContext {
 	public int genAndBindTexture() {
 		int texId = GL11.glGenTextures();
 		setBoundTexture(texId);
+		resetTextureState(texId);
 		return texId;
 	}
 
 	@Override
 	public int getBoundFBO() {
-		return GL11.glGetInteger(GL30.GL_FRAMEBUFFER_BINDING);
+		// NOTE: GL_FRAMEBUFFER_BINDING is the draw framebuffer
+		return getState(GLShadow.DrawFramebuffer);
 	}
 
 	@Override
@@ -473,7 +989,11 @@ public class JFXGLContext extends GLContext {
 
 	@Override
 	public void pixelStorei(int pname, int param) {
-		GL11.glPixelStorei(translatePixelStoreName(pname), param);
+		pname = translatePixelStoreName(pname);
+		int slot = GLShadow.getPixelStoreSlot(pname);
+		if (slot < 0 || changeState(slot, param)) {
+			GL11.glPixelStorei(pname, param);
+		}
 	}
 
 	@Override
@@ -483,24 +1003,94 @@ public class JFXGLContext extends GLContext {
 
 	@Override
 	public void scissorTest(boolean enable, int x, int y, int w, int h) {
+		setCapability(GL11.GL_SCISSOR_TEST, enable);
 		if (enable) {
-			GL11.glEnable(GL11.GL_SCISSOR_TEST);
-			GL11.glScissor(x, y, w, h);
-		} else {
-			GL11.glDisable(GL11.GL_SCISSOR_TEST);
+			boolean xChanged = changeState(GLShadow.ScissorBox + 0, x);
+			boolean yChanged = changeState(GLShadow.ScissorBox + 1, y);
+			boolean wChanged = changeState(GLShadow.ScissorBox + 2, w);
+			boolean hChanged = changeState(GLShadow.ScissorBox + 3, h);
+			if (xChanged || yChanged || wChanged || hChanged) {
+				GL11.glScissor(x, y, w, h);
+			}
 		}
 	}
 
+	// the program from the last setShaderProgram(), or -1 if we don't know, see invalidateState()
+	private int currentProgram = -1;
+	private UniformCache currentUniforms = null;
+	private Map<Integer,UniformCache> programUniforms = new HashMap<>();
+	
 	@Override
 	public void setShaderProgram(int programId) {
-		// TODO: use program caching in members vars?
-		GL20.glUseProgram(programId);
+		
+		if (changeState(GLShadow.Program, programId)) {
+			GL20.glUseProgram(programId);
+		}
+		
+		// NOTE: track the program for uniforms even when this context isn't current,
+		// eg when compositing with the JavaFX context's shaders in the app context
+		if (programId != currentProgram) {
+			currentProgram = programId;
+			currentUniforms = getUniformCache(programId);
+		}
 	}
 	
 	public int getShaderProgram() {
-		return GL11.glGetInteger(GL20.GL_CURRENT_PROGRAM);
+		if (currentProgram < 0) {
+			currentProgram = getState(GLShadow.Program);
+			currentUniforms = getUniformCache(currentProgram);
+		}
+		return currentProgram;
 	}
 
+	private UniformCache getUniformCache(int programId) {
+		if (programId == 0) {
+			return null;
+		}
+		UniformCache cache = programUniforms.get(programId);
+		if (cache == null) {
+			cache = new UniformCache();
+			programUniforms.put(programId, cache);
+		}
+		return cache;
+	}
+	
+	/**
+	 * Forget any GL state this context was keeping track of, because something else changed it,
+	 * eg app code, or GL calls that didn't go through this context.
+	 */
+	public void invalidateState() {
+		shadow.invalidate();
+		forgetCurrentProgram();
+	}
+	
+	/**
+	 * Forget the program uniforms go to, eg because it was set while another context was current.
+	 * The shadow still knows the program that's actually current in this context.
+	 */
+	void forgetCurrentProgram() {
+		currentProgram = -1;
+		currentUniforms = null;
+	}
+	
+	/**
+	 * Returns true if the uniform call should go through to GL. Counts the calls either way.
+	 */
+	private boolean countUniform(boolean isChanged) {
+		FrameStats stats = JFXGL.getFrameStats();
+		if (isChanged) {
+			stats.add(FrameStats.Phase.UniformsIssued, 1);
+		} else {
+			stats.add(FrameStats.Phase.UniformsSkipped, 1);
+		}
+		return isChanged;
+	}
+	
+	private UniformCache getCurrentUniforms() {
+		getShaderProgram();
+		return currentUniforms;
+	}
+	
 	@Override
 	public void texParamsMinMax(int pname, boolean useMipmap) {
 		
@@ -515,11 +1105,9 @@ public class JFXGLContext extends GLContext {
 			}
 		}
 		
-		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, translatePrismToGL(max));
-		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, translatePrismToGL(min));
+		getBoundTextureState().setFilters(translatePrismToGL(min), translatePrismToGL(max));
 	}
 	
-	private ByteBuffer imageBuf = null;
 	private static final int[] swizzleMaskDefault = {GL11.GL_RED, GL11.GL_GREEN, GL11.GL_BLUE, GL11.GL_ALPHA};
 	private static final int[] swizzleMaskRedToAlpha = {GL11.GL_ZERO, GL11.GL_ZERO, GL11.GL_ZERO, GL11.GL_RED};
 
@@ -533,57 +1121,78 @@ public class JFXGLContext extends GLContext {
 		}
 		ByteBuffer buf = (ByteBuffer)pixels;
 		
+		// scratch buffers come from the arena, so give them back when we're done
+		ByteBuffer directBuf = null;
+		
 		if (useMipmap) {
 			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL14.GL_GENERATE_MIPMAP, GL11.GL_TRUE);
 		}
 		
-		// if buf is not direct, copy it to a direct buffer
-		if (buf != null && !buf.isDirect()) {
-			imageBuf = updateBuffer(imageBuf, buf);
-			buf = imageBuf;
-		}
-		
 		// convert values from prism to opengl
 		target = translatePrismToGL(target);
 		internalFormat = translatePrismToGL(internalFormat);
 		format = translatePrismToGL(format);
 		type = translatePrismToGL(type);
 		
-		// alpha and luminance formats aren't supported in core profiles anymore, so convert to RGBA
-		if (format == GL11.GL_ALPHA) {
-			
-			if (caps.GL_ARB_texture_swizzle) {
-				format = GL11.GL_RED;
-				GL11.glTexParameteriv(GL11.GL_TEXTURE_2D, GL33.GL_TEXTURE_SWIZZLE_RGBA, swizzleMaskRedToAlpha);
-			} else if (buf != null) {
-				format = GL11.GL_RGBA;
-				buf = convertPixelsAlphaToRGBA(buf);
-			}
-			
+		// alpha and luminance formats aren't supported in core profiles anymore, so upload alpha as red
+		// and move it back to alpha with a texture swizzle, or in the shader if swizzles aren't supported
+		boolean isAlpha = format == GL11.GL_ALPHA;
+		if (isAlpha) {
+			format = GL11.GL_RED;
 		} else if (format == GL11.GL_LUMINANCE) {
 			throw new IllegalArgumentException("luminance textures aren't supported in core profiles");
-			
-		} else if (caps.GL_ARB_texture_swizzle) {
-			GL11.glTexParameteriv(GL11.GL_TEXTURE_2D, GL33.GL_TEXTURE_SWIZZLE_RGBA, swizzleMaskDefault);
+		}
+		TextureState state = getBoundTextureState();
+		if (features.hasTextureSwizzle) {
+			state.setSwizzle(isAlpha ? swizzleMaskRedToAlpha : swizzleMaskDefault);
+		} else {
+			state.isAlpha = isAlpha;
 		}
 		
-		if (internalFormat == GL11.GL_ALPHA || internalFormat == GL11.GL_LUMINANCE) {
+		if (internalFormat == GL11.GL_ALPHA) {
+			internalFormat = GL30.GL_R8;
+		} else if (internalFormat == GL11.GL_LUMINANCE) {
 			internalFormat = GL11.GL_RGBA;
 		}
 		
+		// try to upload through a pixel buffer
+		long offset = stagePixels(buf);
+		
+		// otherwise, if buf is not direct, copy it to a direct buffer
+		if (offset < 0 && buf != null && !buf.isDirect()) {
+			buf = directBuf = copyToDirect(buf);
+		}
+		
 		clearGLErrors();
 		
-		GL11.glTexImage2D(
-			target,
-			level,
-			internalFormat,
-			width,
-			height,
-			border,
-			format,
-			type,
-			buf
-		);
+		if (offset >= 0) {
+			GL11.glTexImage2D(
+				target,
+				level,
+				internalFormat,
+				width,
+				height,
+				border,
+				format,
+				type,
+				offset
+			);
+			pixelBuf.unbind();
+		} else {
+			GL11.glTexImage2D(
+				target,
+				level,
+				internalFormat,
+				width,
+				height,
+				border,
+				format,
+				type,
+				buf
+			);
+		}
+		
+		release(directBuf);
 		
 		int glerror = getGLError();
 		boolean hasError = glerror != GL11.GL_NO_ERROR;
@@ -603,101 +1212,319 @@ public class JFXGLContext extends GLContext {
 		}
 		ByteBuffer buf = (ByteBuffer)pixels;
 		
-		// if buf is not direct, copy it to a direct buffer
-		if (buf != null && !buf.isDirect()) {
-			imageBuf = updateBuffer(imageBuf, buf);
-			buf = imageBuf;
-		}
+		// scratch buffers come from the arena, so give them back when we're done
+		ByteBuffer directBuf = null;
 		
 		// convert values from prism to opengl
 		target = translatePrismToGL(target);
 		format = translatePrismToGL(format);
 		type = translatePrismToGL(type);
 		
-		// alpha and luminance formats aren't supported in core profiles anymore, so convert to RGBA
+		// alpha textures were uploaded as red, see texImage2D()
+		// NOTE: the swizzle was already set by texImage2D()
 		if (format == GL11.GL_ALPHA) {
-			
-			if (caps.GL_ARB_texture_swizzle) {
-				format = GL11.GL_RED;
-				GL11.glTexParameteriv(GL11.GL_TEXTURE_2D, GL33.GL_TEXTURE_SWIZZLE_RGBA, swizzleMaskRedToAlpha);
-			} else if (buf != null) {
-				format = GL11.GL_RGBA;
-				buf = convertPixelsAlphaToRGBA(buf);
-			}
+			format = GL11.GL_RED;
 			
 		} else if (format == GL11.GL_LUMINANCE) {
 			throw new IllegalArgumentException("luminance textures aren't supported in core profiles");
-			
-		} else if (caps.GL_ARB_texture_swizzle) {
-			GL11.glTexParameteriv(GL11.GL_TEXTURE_2D, GL33.GL_TEXTURE_SWIZZLE_RGBA, swizzleMaskDefault);
-		}
-		
-		GL11.glTexSubImage2D(
-			target,
-			level,
-			xoffset,
-			yoffset,
-			width,
-			height,
-			format,
-			type,
-			buf
-		);
+		}
+		
+		// try to upload through a pixel buffer
+		long offset = stagePixels(buf);
+		
+		// otherwise, if buf is not direct, copy it to a direct buffer
+		if (offset < 0 && buf != null && !buf.isDirect()) {
+			buf = directBuf = copyToDirect(buf);
+		}
+		
+		if (offset >= 0) {
+			GL11.glTexSubImage2D(
+				target,
+				level,
+				xoffset,
+				yoffset,
+				width,
+				height,
+				format,
+				type,
+				offset
+			);
+			pixelBuf.unbind();
+		} else {
+			GL11.glTexSubImage2D(
+				target,
+				level,
+				xoffset,
+				yoffset,
+				width,
+				height,
+				format,
+				type,
+				buf
+			);
+		}
+		
+		release(directBuf);
 	}
 	
-	private ByteBuffer expandedImageBuf = null;
+	private static final int PixelBufferBytes = 16*1024*1024; // 16 MiB
+	private static final int MinPixelBufferUploadBytes = 64*1024; // 64 KiB
+	
+	private StreamingBuffer pixelBuf = null;
 	
-	private ByteBuffer convertPixelsAlphaToRGBA(ByteBuffer buf) {
+	/**
+	 * Copies the pixels into the pixel buffer ring, and leaves the ring bound for the upload.
+	 * 
+	 * @return the offset of the pixels in the ring, or -1 if the pixels should be uploaded from client memory instead
+	 */
+	private long stagePixels(ByteBuffer buf) {
 		
-		// NOTE: this is a huge performance bottleneck when texture swizzle masks aren't available
+		if (buf == null || !usePixelBuffers || !features.hasPixelBufferObjects) {
+			return -1;
+		}
 		
-		expandedImageBuf = manageBufferSize(expandedImageBuf, buf.limit()*4);
-		expandedImageBuf.clear();
-		buf.rewind();
-		while (buf.hasRemaining()) {
-			expandedImageBuf.put((byte)0);
-			expandedImageBuf.put((byte)0);
-			expandedImageBuf.put((byte)0);
-			expandedImageBuf.put(buf.get());
+		// NOTE: copy the same bytes the client memory path would use
+		// (heap buffers get copied from the start, direct buffers from the current position)
+		int start = buf.isDirect() ? buf.position() : 0;
+		int numBytes = buf.limit() - start;
+		
+		// small uploads aren't worth it, and huge uploads would take over the whole ring
+		if (numBytes < MinPixelBufferUploadBytes) {
+			return -1;
+		}
+		if (pixelBuf == null) {
+			boolean isPersistent = features.hasBufferStorage;
+			pixelBuf = new StreamingBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, isPersistent, PixelBufferBytes);
+			pixelBuf.unbind();
+		}
+		if (numBytes > pixelBuf.getMaxRegionBytes()) {
+			return -1;
 		}
-		expandedImageBuf.flip();
 		
-		return expandedImageBuf;
+		// copy the pixels straight into GPU-visible memory
+		pixelBuf.bind();
+		int pos = buf.position();
+		buf.position(start);
+		pixelBuf.map(numBytes).put(buf);
+		buf.position(pos);
+		pixelBuf.unmap();
+		
+		return pixelBuf.getOffset();
+	}
+	
+	/**
+	 * The parameters we last set on a texture, so we can skip GL calls that wouldn't change anything.
+	 * Zeros and nulls mean we don't know the value, so the next call always goes through to GL.
+	 * Without direct state access, the setters need the texture to be bound to the active texture unit.
+	 */
+	private static class TextureState {
+		
+		public final int texId;
+		public final boolean isDirect;
+		
+		public int[] swizzle = null;
+		public int minFilter = 0;
+		public int magFilter = 0;
+		public int wrap = 0;
+		
+		// does the red channel hold alpha? only used when texture swizzles aren't supported
+		public boolean isAlpha = false;
+		
+		public TextureState(int texId, boolean isDirect) {
+			this.texId = texId;
+			this.isDirect = isDirect;
+		}
+		
+		private void setParameter(int pname, int val) {
+			if (isDirect) {
+				GL45.glTextureParameteri(texId, pname, val);
+			} else {
+				GL11.glTexParameteri(GL11.GL_TEXTURE_2D, pname, val);
+			}
+		}
+		
+		public void setSwizzle(int[] val) {
+			if (swizzle != val) {
+				if (isDirect) {
+					GL45.glTextureParameteriv(texId, GL33.GL_TEXTURE_SWIZZLE_RGBA, val);
+				} else {
+					GL11.glTexParameteriv(GL11.GL_TEXTURE_2D, GL33.GL_TEXTURE_SWIZZLE_RGBA, val);
+				}
+				swizzle = val;
+			}
+		}
+		
+		public void setFilters(int min, int mag) {
+			if (minFilter != min) {
+				setParameter(GL11.GL_TEXTURE_MIN_FILTER, min);
+				minFilter = min;
+			}
+			if (magFilter != mag) {
+				setParameter(GL11.GL_TEXTURE_MAG_FILTER, mag);
+				magFilter = mag;
+			}
+		}
+		
+		public void setWrap(int val) {
+			if (wrap != val) {
+				setParameter(GL11.GL_TEXTURE_WRAP_S, val);
+				setParameter(GL11.GL_TEXTURE_WRAP_T, val);
+				wrap = val;
+			}
+		}
+		
+		public void setDefaults() {
+			// these are the GL defaults for new textures
+			swizzle = swizzleMaskDefault;
+			minFilter = GL11.GL_NEAREST_MIPMAP_LINEAR;
+			magFilter = GL11.GL_LINEAR;
+			wrap = GL11.GL_REPEAT;
+			isAlpha = false;
+		}
+	}
+	
+	// indexed by texture id
+	// NOTE: all the JFXGL contexts share textures, so they share the texture states too,
+	// otherwise a context could trust stale state after another context deleted a texture and GL recycled its id
+	private static TextureState[] textureStates = new TextureState[256];
+	
+	private TextureState getTextureState(int texId) {
+		if (texId >= textureStates.length) {
+			textureStates = Arrays.copyOf(textureStates, Math.max(texId + 1, textureStates.length*2));
+		}
+		TextureState state = textureStates[texId];
+		if (state == null) {
+			state = new TextureState(texId, isDirectStateAccess());
+			textureStates[texId] = state;
+		}
+		return state;
+	}
+	
+	private TextureState getBoundTextureState() {
+		return getTextureState(getBoundTexture(getState(GLShadow.ActiveTexture) - GL13.GL_TEXTURE0));
+	}
+	
+	private TextureState resetTextureState(int texId) {
+		
+		// NOTE: the id could have been recycled from a texture that wasn't deleted through JFXGL, so start over
+		clearTextureState(texId);
+		
+		TextureState state = getTextureState(texId);
+		state.setDefaults();
+		return state;
+	}
+	
+	private void clearTextureState(int texId) {
+		// NOTE: GL recycles texture ids, so forget everything we knew
+		if (texId < textureStates.length) {
+			textureStates[texId] = null;
+		}
+	}
+	
+	private boolean isAlphaTexture(int texId) {
+		return texId < textureStates.length && textureStates[texId] != null && textureStates[texId].isAlpha;
+	}
+	
+	/**
+	 * The samplers of a shader program whose fragment shader was rewritten to handle alpha textures.
+	 */
+	private static class AlphaSamplers {
+		
+		public final int[] samplerLocations;
+		public final int[] alphaLocations;
+		public final int[] units;
+		public final int[] alphaValues;
+		
+		public AlphaSamplers(int programId, List<String> samplers) {
+			samplerLocations = new int[samplers.size()];
+			alphaLocations = new int[samplers.size()];
+			units = new int[samplers.size()];
+			alphaValues = new int[samplers.size()];
+			for (int i=0; i<samplers.size(); i++) {
+				samplerLocations[i] = GL20.glGetUniformLocation(programId, samplers.get(i));
+				alphaLocations[i] = GL20.glGetUniformLocation(programId, ShaderTranslator.AlphaUniformPrefix + samplers.get(i));
+				units[i] = 0;
+				alphaValues[i] = -1;
+			}
+		}
+		
+		public void setUnit(int samplerLocation, int unit) {
+			for (int i=0; i<samplerLocations.length; i++) {
+				if (samplerLocations[i] == samplerLocation) {
+					units[i] = unit;
+				}
+			}
+		}
+	}
+	
+	private Map<Integer,AlphaSamplers> programAlphaSamplers = new HashMap<>();
+	
+	/**
+	 * Tells the current shader program which of its textures hold alpha in the red channel.
+	 */
+	private void updateAlphaUniforms() {
+		
+		if (programAlphaSamplers.isEmpty()) {
+			return;
+		}
+		
+		AlphaSamplers samplers = programAlphaSamplers.get(getShaderProgram());
+		if (samplers == null) {
+			return;
+		}
+		
+		// NOTE: check which textures are actually bound, since JFXGL composites with its own textures between Prism draws
+		for (int i=0; i<samplers.units.length; i++) {
+			
+			if (samplers.alphaLocations[i] < 0) {
+				continue;
+			}
+			
+			int alphaValue = isAlphaTexture(getBoundTexture(samplers.units[i])) ? 1 : 0;
+			if (alphaValue != samplers.alphaValues[i]) {
+				GL20.glUniform1i(samplers.alphaLocations[i], alphaValue);
+				samplers.alphaValues[i] = alphaValue;
+			}
+		}
 	}
 	
 	@Override
 	public void updateViewportAndDepthTest(int x, int y, int w, int h, boolean depthTest) {
 		
-		GL11.glViewport(x, y, w, h);
+		setViewport(x, y, w, h);
 		
+		setCapability(GL11.GL_DEPTH_TEST, depthTest);
 		if (depthTest) {
-			GL11.glEnable(GL11.GL_DEPTH_TEST);
-			GL11.glDepthFunc(GL11.GL_LEQUAL);
-			GL11.glDepthMask(true);
-		} else {
-			GL11.glDisable(GL11.GL_DEPTH_TEST);
-			GL11.glDepthMask(false);
+			if (changeState(GLShadow.DepthFunc, GL11.GL_LEQUAL)) {
+				GL11.glDepthFunc(GL11.GL_LEQUAL);
+			}
+		}
+		setDepthMask(depthTest);
+	}
+	
+	/**
+	 * Like glViewport, but skips the call if the viewport is already set.
+	 */
+	public void setViewport(int x, int y, int w, int h) {
+		boolean xChanged = changeState(GLShadow.Viewport + 0, x);
+		boolean yChanged = changeState(GLShadow.Viewport + 1, y);
+		boolean wChanged = changeState(GLShadow.Viewport + 2, w);
+		boolean hChanged = changeState(GLShadow.Viewport + 3, h);
+		if (xChanged || yChanged || wChanged || hChanged) {
+			GL11.glViewport(x, y, w, h);
 		}
 	}
 
 	@Override
 	public void updateMSAAState(boolean msaa) {
-		if (msaa) {
-			GL11.glEnable(GL13.GL_MULTISAMPLE);
-		} else {
-			GL11.glDisable(GL13.GL_MULTISAMPLE);
-		}
+		setCapability(GL13.GL_MULTISAMPLE, msaa);
 	}
 
 	@Override
 	public void updateFilterState(int texID, boolean linearFilter) {
-		if (linearFilter) {
-			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
-			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
-		} else {
-			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
-			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
-		}
+		// NOTE: Prism always binds texID before calling this, but with direct state access it doesn't matter
+		int filter = linearFilter ? GL11.GL_LINEAR : GL11.GL_NEAREST;
+		getTextureState(texID).setFilters(filter, filter);
 	}
 
 	@Override
@@ -721,63 +1548,104 @@ public class JFXGLContext extends GLContext {
 			default:
 				throw new Error("Unrecognized wrap mode: " + wrapMode);
 		}
-		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, translatePrismToGL(wm));
-		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, translatePrismToGL(wm));
+		// NOTE: Prism always binds texID before calling this, but with direct state access it doesn't matter
+		getTextureState(texID).setWrap(translatePrismToGL(wm));
 	}
 
 	@Override
 	public void uniform1f(int location, float v0) {
-		GL20.glUniform1f(location, v0);
+		UniformCache uniforms = getCurrentUniforms();
+		if (uniforms == null || countUniform(uniforms.set(location, v0))) {
+			GL20.glUniform1f(location, v0);
+		}
 	}
 
 	@Override
 	public void uniform2f(int location, float v0, float v1) {
-		GL20.glUniform2f(location, v0, v1);
+		UniformCache uniforms = getCurrentUniforms();
+		if (uniforms == null || countUniform(uniforms.set(location, v0, v1))) {
+			GL20.glUniform2f(location, v0, v1);
+		}
 	}
 
 	@Override
 	public void uniform3f(int location, float v0, float v1, float v2) {
-		GL20.glUniform3f(location, v0, v1, v2);
+		UniformCache uniforms = getCurrentUniforms();
+		if (uniforms == null || countUniform(uniforms.set(location, v0, v1, v2))) {
+			GL20.glUniform3f(location, v0, v1, v2);
+		}
 	}
 
 	@Override
 	public void uniform4f(int location, float v0, float v1, float v2, float v3) {
-		GL20.glUniform4f(location, v0, v1, v2, v3);
+		UniformCache uniforms = getCurrentUniforms();
+		if (uniforms == null || countUniform(uniforms.set(location, v0, v1, v2, v3))) {
+			GL20.glUniform4f(location, v0, v1, v2, v3);
+		}
 	}
 
 	@Override
 	public void uniform4fv(int location, int count, FloatBuffer val) {
-		GL20.glUniform4fv(location, val);
+		UniformCache uniforms = getCurrentUniforms();
+		if (uniforms == null || countUniform(uniforms.set(location, val))) {
+			GL20.glUniform4fv(location, val);
+		}
 	}
 
 	@Override
 	public void uniform1i(int location, int v0) {
-		GL20.glUniform1i(location, v0);
+		UniformCache uniforms = getCurrentUniforms();
+		if (uniforms == null || countUniform(uniforms.set(location, v0))) {
+			GL20.glUniform1i(location, v0);
+		}
+		
+		// keep track of sampler units for the alpha flags
+		if (!programAlphaSamplers.isEmpty()) {
+			AlphaSamplers samplers = programAlphaSamplers.get(getShaderProgram());
+			if (samplers != null) {
+				samplers.setUnit(location, v0);
+			}
+		}
 	}
 
 	@Override
 	public void uniform2i(int location, int v0, int v1) {
-		GL20.glUniform2i(location, v0, v1);
+		UniformCache uniforms = getCurrentUniforms();
+		if (uniforms == null || countUniform(uniforms.set(location, v0, v1))) {
+			GL20.glUniform2i(location, v0, v1);
+		}
 	}
 
 	@Override
 	public void uniform3i(int location, int v0, int v1, int v2) {
-		GL20.glUniform3i(location, v0, v1, v2);
+		UniformCache uniforms = getCurrentUniforms();
+		if (uniforms == null || countUniform(uniforms.set(location, v0, v1, v2))) {
+			GL20.glUniform3i(location, v0, v1, v2);
+		}
 	}
 
 	@Override
 	public void uniform4i(int location, int v0, int v1, int v2, int v3) {
-		GL20.glUniform4i(location, v0, v1, v2, v3);
+		UniformCache uniforms = getCurrentUniforms();
+		if (uniforms == null || countUniform(uniforms.set(location, v0, v1, v2, v3))) {
+			GL20.glUniform4i(location, v0, v1, v2, v3);
+		}
 	}
 
 	@Override
 	public void uniform4iv(int location, int count, IntBuffer val) {
-		GL20.glUniform4iv(location, val);
+		UniformCache uniforms = getCurrentUniforms();
+		if (uniforms == null || countUniform(uniforms.set(location, val))) {
+			GL20.glUniform4iv(location, val);
+		}
 	}
 
 	@Override
 	public void uniformMatrix4fv(int location, boolean transpose, float values[]) {
-		GL20.glUniformMatrix4fv(location, transpose, values);
+		UniformCache uniforms = getCurrentUniforms();
+		if (uniforms == null || countUniform(uniforms.setMatrix(location, transpose, values))) {
+			GL20.glUniformMatrix4fv(location, transpose, values);
+		}
 	}
 	
 	@Override
@@ -807,33 +1675,56 @@ public class JFXGLContext extends GLContext {
 	private static final int Tex1OffsetBytes = Tex0OffsetBytes + TexCoordFloats*Float.BYTES;
 	private static final int ColorBytes = 4;
 	
+	// the packed layout: pos (floats), tex0 and tex1 (normalized shorts), color (normalized bytes)
+	private static final int PackedTexCoordBytes = TexCoordFloats*Short.BYTES;
+	private static final int PackedPosOffsetBytes = 0;
+	private static final int PackedTex0OffsetBytes = PackedPosOffsetBytes + PosCoordFloats*Float.BYTES;
+	private static final int PackedTex1OffsetBytes = PackedTex0OffsetBytes + PackedTexCoordBytes;
+	private static final int PackedColorOffsetBytes = PackedTex1OffsetBytes + PackedTexCoordBytes;
+	private static final int PackedBytes = PackedColorOffsetBytes + ColorBytes;
+	
+	private static final int StreamingBufferBytes = 4*1024*1024; // 4 MiB
+	
 	private int indexedQuadsVaId = -1;
-	private int indexedQuadsCoordsId = -1;
-	private int indexedQuadsColorsId = -1;
+	private StreamingBuffer indexedQuadsBuf = null;
 	private int iboId = -1;
 	
 	private void bindVertexArray() {
 		
 		if (indexedQuadsVaId != -1) {
-			GL30.glBindVertexArray(indexedQuadsVaId);
+			bindVertexArray(indexedQuadsVaId);
 			return;
 		}
 		
 		// make a new vertex array id
 		indexedQuadsVaId = GL30.glGenVertexArrays();
-		GL30.glBindVertexArray(indexedQuadsVaId);
+		bindVertexArray(indexedQuadsVaId);
 		
 		// make an index buffer id
 		iboId = GL15.glGenBuffers();
-		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, iboId);
+		setIndexBuffer(iboId);
 		
-		// make the other buffer ids
-		indexedQuadsCoordsId = GL15.glGenBuffers();
-		indexedQuadsColorsId = GL15.glGenBuffers();
+		// make the vertex buffer, coords and colors share it
+		boolean isPersistent = features.hasBufferStorage;
+		indexedQuadsBuf = new StreamingBuffer(GL15.GL_ARRAY_BUFFER, isPersistent, StreamingBufferBytes);
+		noteState(GLShadow.ArrayBuffer, indexedQuadsBuf.getId());
+	}
+	
+	public void bindVertexArray(int id) {
+		if (changeState(GLShadow.VertexArray, id)) {
+			GL30.glBindVertexArray(id);
+			
+			// the index buffer binding belongs to the vertex array
+			forgetState(GLShadow.ElementArrayBuffer);
+		}
+	}
+	
+	public void bindArrayBuffer(int id) {
+		if (changeState(GLShadow.ArrayBuffer, id)) {
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, id);
+		}
 	}
 	
-	private ByteBuffer indexedQuadsCoordsBuf = null;
-	private ByteBuffer indexedQuadsColorsBuf = null;
 	private ShortBuffer ibo = null;
 	
 	@Override
@@ -843,30 +1734,98 @@ public class JFXGLContext extends GLContext {
 		int numIndices = numQuads*2*3;
 		
 		// for some reason (compatibility maybe?) JavaFX keeps all its data on the JVM heap (eg, in arrays)
-		// sadly, LWJGL won't let us use attribute offsets on heap buffers, so we need to copy into direct buffers
-		// hopefully we're not drawing that many quads in JavaFX, and this won't be too slow
+		// so copy it into the streaming buffer, which hands out a new region of GPU memory for every batch
+		// instead of reallocating the buffer storage every time
 		
 		bindVertexArray();
+		bindArrayBuffer(indexedQuadsBuf.getId());
 		
-		// pos,tex coords
-		indexedQuadsCoordsBuf = updateBuffer(indexedQuadsCoordsBuf, coords, numVertices*PosTexBytes);
-		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, indexedQuadsCoordsId);
-		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, indexedQuadsCoordsBuf, GL15.GL_STATIC_DRAW);
-		GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, PosTexBytes, PosOffsetBytes);
-		// index 1 is color, handled below
-		GL20.glVertexAttribPointer(2, 2, GL11.GL_FLOAT, false, PosTexBytes, Tex0OffsetBytes);
-		GL20.glVertexAttribPointer(3, 2, GL11.GL_FLOAT, false, PosTexBytes, Tex1OffsetBytes);
-		
-		// colors
-		indexedQuadsColorsBuf = updateBuffer(indexedQuadsColorsBuf, colors, numVertices*ColorBytes);
-		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, indexedQuadsColorsId);
-		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, indexedQuadsColorsBuf, GL15.GL_STATIC_DRAW);
-		GL20.glVertexAttribPointer(1, 4, GL11.GL_UNSIGNED_BYTE, true, ColorBytes, 0);
+		if (usePackedVertices && areTexCoordsNormalized(coords, numVertices)) {
+			uploadPackedVertices(coords, colors, numVertices);
+		} else {
+			uploadVertices(coords, colors, numVertices);
+		}
+		
+		// NOTE: the streaming buffer binds its new buffer if it has to grow
+		noteState(GLShadow.ArrayBuffer, indexedQuadsBuf.getId());
+		
+		updateAlphaUniforms();
 		
 		// finally, draw the triangles!
 		GL11.glDrawElements(GL11.GL_TRIANGLES, numIndices, GL11.GL_UNSIGNED_SHORT, 0);
 	}
 	
+	private void uploadVertices(float coords[], byte colors[], int numVertices) {
+		
+		// put the pos,tex coords and then the colors in one region, so the draw only reads from one section
+		// NOTE: the coords are whole floats, so the colors always start 4-byte aligned
+		int coordsBytes = numVertices*PosTexBytes;
+		int colorsBytes = numVertices*ColorBytes;
+		ByteBuffer buf = indexedQuadsBuf.map(coordsBytes + colorsBytes);
+		int start = buf.position();
+		
+		// NOTE: bulk puts into direct buffers are one big memory copy, rather than one call per float
+		int numFloats = coordsBytes/Float.BYTES;
+		indexedQuadsBuf.getFloats(numFloats).put(coords, 0, numFloats);
+		buf.position(start + coordsBytes);
+		buf.put(colors, 0, colorsBytes);
+		indexedQuadsBuf.unmap();
+		
+		int offset = indexedQuadsBuf.getOffset();
+		int colorsOffset = offset + coordsBytes;
+		GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, PosTexBytes, offset + PosOffsetBytes);
+		GL20.glVertexAttribPointer(1, 4, GL11.GL_UNSIGNED_BYTE, true, ColorBytes, colorsOffset);
+		GL20.glVertexAttribPointer(2, 2, GL11.GL_FLOAT, false, PosTexBytes, offset + Tex0OffsetBytes);
+		GL20.glVertexAttribPointer(3, 2, GL11.GL_FLOAT, false, PosTexBytes, offset + Tex1OffsetBytes);
+	}
+	
+	private static boolean areTexCoordsNormalized(float coords[], int numVertices) {
+		final int stride = PosCoordFloats + TexCoordFloats*2;
+		for (int i=0; i<numVertices; i++) {
+			int start = i*stride + PosCoordFloats;
+			for (int j=start; j<start + TexCoordFloats*2; j++) {
+				float val = coords[j];
+				
+				// NOTE: written so NaNs fail too
+				if (!(val >= 0f && val <= 1f)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	private static short packUnorm16(float val) {
+		return (short)(int)(val*65535f + 0.5f);
+	}
+	
+	private void uploadPackedVertices(float coords[], byte colors[], int numVertices) {
+		
+		final int stride = PosCoordFloats + TexCoordFloats*2;
+		
+		// interleave everything into one region
+		ByteBuffer buf = indexedQuadsBuf.map(numVertices*PackedBytes);
+		for (int i=0; i<numVertices; i++) {
+			int c = i*stride;
+			buf.putFloat(coords[c++]);
+			buf.putFloat(coords[c++]);
+			buf.putFloat(coords[c++]);
+			buf.putShort(packUnorm16(coords[c++]));
+			buf.putShort(packUnorm16(coords[c++]));
+			buf.putShort(packUnorm16(coords[c++]));
+			buf.putShort(packUnorm16(coords[c++]));
+			buf.put(colors, i*ColorBytes, ColorBytes);
+		}
+		indexedQuadsBuf.unmap();
+		
+		// same attribute indices as the unpacked layout, so the shaders can't tell the difference
+		int offset = indexedQuadsBuf.getOffset();
+		GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, PackedBytes, offset + PackedPosOffsetBytes);
+		GL20.glVertexAttribPointer(1, 4, GL11.GL_UNSIGNED_BYTE, true, PackedBytes, offset + PackedColorOffsetBytes);
+		GL20.glVertexAttribPointer(2, 2, GL11.GL_UNSIGNED_SHORT, true, PackedBytes, offset + PackedTex0OffsetBytes);
+		GL20.glVertexAttribPointer(3, 2, GL11.GL_UNSIGNED_SHORT, true, PackedBytes, offset + PackedTex1OffsetBytes);
+	}
+	
 	@Override
 	public int createIndexBuffer16(short data[]) {
 		
@@ -879,7 +1838,7 @@ public class JFXGLContext extends GLContext {
 		ibo.flip();
 		
 		bindVertexArray();
-		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, iboId);
+		setIndexBuffer(iboId);
 		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, ibo, GL15.GL_STATIC_DRAW);
 		
 		return iboId;
@@ -887,7 +1846,9 @@ public class JFXGLContext extends GLContext {
 	
 	@Override
 	public void setIndexBuffer(int id) {
-		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, id);
+		if (changeState(GLShadow.ElementArrayBuffer, id)) {
+			GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, id);
+		}
 	}
 
 	@Override
@@ -1149,58 +2110,20 @@ public class JFXGLContext extends GLContext {
 		return GL11.glGetError();
 	}
 	
-	private static int findPowerOf2(int a) {
-		
-		if (a == 0) {
-			return 0;
-		}
-		
-		int i = 1;
-		for (int j=0; j<31; j++) {
-			if (i >= a) {
-				return i;
-			}
-			i <<= 1;
-		}
-		throw new Error("argument too big for 32 bits: " + a);
-	}
-	
-	private static ByteBuffer manageBufferSize(ByteBuffer buf, int numBytesNeeded) {
-		
-		final int MinBufferBytes = 1024;
-		int bufferSize = Math.max(findPowerOf2(numBytesNeeded), MinBufferBytes);
-		
-		if (buf == null || buf.capacity() < bufferSize) {
-			buf = BufferUtils.createByteBuffer(bufferSize);
-		}
-		return buf;
-	}
-	
-	private static ByteBuffer updateBuffer(ByteBuffer buf, byte[] data, int numBytesNeeded) {
-		buf = manageBufferSize(buf, numBytesNeeded);
-		buf.clear();
-		buf.put(data, 0, numBytesNeeded);
+	/**
+	 * Copies the buffer into a direct buffer from the arena. Release it when you're done.
+	 */
+	private static ByteBuffer copyToDirect(ByteBuffer data) {
+		ByteBuffer buf = BufferArena.shared.acquire(data.limit());
+		data.rewind();
+		buf.put(data);
 		buf.flip();
 		return buf;
 	}
 	
-	private static ByteBuffer updateBuffer(ByteBuffer buf, float[] data, int numBytesNeeded) {
-		buf = manageBufferSize(buf, numBytesNeeded);
-		buf.clear();
-		int numFloatsNeeded = numBytesNeeded/Float.BYTES;
-		for (int i=0; i<numFloatsNeeded; i++) {
-			buf.putFloat(data[i]);
+	private static void release(ByteBuffer buf) {
+		if (buf != null) {
+			BufferArena.shared.release(buf);
 		}
-		buf.flip();
-		return buf;
-	}
-	
-	private static ByteBuffer updateBuffer(ByteBuffer buf, ByteBuffer data) {
-		buf = manageBufferSize(buf, data.limit());
-		data.rewind();
-		buf.clear();
-		buf.put(data);
-		buf.flip();
-		return buf;
 	}
 }
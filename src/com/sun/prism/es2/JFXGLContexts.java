@@ -1,10 +1,20 @@
 package com.sun.prism.es2;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.lwjgl.glfw.GLFW;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL14;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GL30;
 
+import cuchaz.jfxgl.CalledByMainThread;
+import cuchaz.jfxgl.FrameStats;
+import cuchaz.jfxgl.GLState;
+import cuchaz.jfxgl.JFXGL;
 import cuchaz.jfxgl.controls.OpenGLPane;
 
 public class JFXGLContexts {
@@ -16,6 +26,103 @@ public class JFXGLContexts {
 	
 	private static Map<OpenGLPane.OpenGLNode,JFXGLContext> panes = new HashMap<>();
 	
+	// in single-context mode, JavaFX and the app take turns with the state of the one context
+	// NOTE: restore order is the reverse of this order, so bind the vertex array before the element buffer
+	private static GLState appState = makeAppState();
+	private static GLState javafxState = new GLState(makeSharedState());
+	private static boolean hasJavafxState = false;
+	
+	private static GLState.Part[] makeSharedState() {
+		return new GLState.Part[] {
+			GLState.Blend, GLState.BlendFunc, GLState.ScissorTest, GLState.ScissorBox,
+			GLState.DepthTest, GLState.DepthFunc, GLState.DepthMask, GLState.Multisample,
+			GLState.ShaderProgram,
+			GLState.ActiveTexture,
+			GLState.Texture2D[0], GLState.Texture2D[1], GLState.Texture2D[2], GLState.Texture2D[3],
+			GLState.Texture2D[4], GLState.Texture2D[5], GLState.Texture2D[6], GLState.Texture2D[7],
+			GLState.ElementArrayBuffer, GLState.ArrayBuffer, GLState.VertexArray,
+			GLState.DrawFramebuffer, GLState.ReadFramebuffer, GLState.Viewport, GLState.ClearColor,
+			GLState.UnpackAlignment, GLState.UnpackRowLength, GLState.UnpackSkipPixels, GLState.UnpackSkipRows
+		};
+	}
+	
+	/**
+	 * The shared state, plus state JavaFX never sets, but expects to be at the GL defaults.
+	 * JavaFX only ever sees the defaults (see {@link #resetHostState()}), so only the app's copy needs it.
+	 */
+	private static GLState makeAppState() {
+		GLState.Part[] shared = makeSharedState();
+		GLState.Part[] host = {
+			GLState.CullFace, GLState.StencilTest, GLState.FramebufferSRGB,
+			GLState.ColorMask, GLState.BlendEquation, GLState.PolygonMode,
+			GLState.PixelUnpackBuffer
+		};
+		GLState.Part[] parts = Arrays.copyOf(shared, shared.length + host.length);
+		System.arraycopy(host, 0, parts, shared.length, host.length);
+		return new GLState(parts);
+	}
+	
+	/**
+	 * Puts back the GL defaults for the state in {@link #makeAppState()} that JavaFX doesn't set itself.
+	 * Eg, culling would hide some of the UI, and a bound unpack buffer would make texture uploads read from it.
+	 */
+	private static void resetHostState() {
+		GL11.glDisable(GL11.GL_CULL_FACE);
+		GL11.glDisable(GL11.GL_STENCIL_TEST);
+		GL11.glDisable(GL30.GL_FRAMEBUFFER_SRGB);
+		GL11.glColorMask(true, true, true, true);
+		GL14.glBlendEquation(GL14.GL_FUNC_ADD);
+		GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, GL11.GL_FILL);
+		GL15.glBindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, 0);
+	}
+	
+	/**
+	 * Returns true if JavaFX renders directly in the app context, rather than in its own context.
+	 */
+	public static boolean isSingleContext() {
+		return javafx != null && javafx == app;
+	}
+	
+	/**
+	 * Get ready for JavaFX rendering.
+	 * <p>
+	 * Normally, this just switches to the JavaFX context. In single-context mode, it saves the app's
+	 * OpenGL state and puts back the state JavaFX left behind last time instead.
+	 */
+	@CalledByMainThread
+	public static void switchToJavaFX() {
+		if (isSingleContext()) {
+			app.makeCurrent();
+			
+			// the app could have changed anything since last time
+			app.invalidateState();
+			appState.backup(app.getShadow());
+			resetHostState();
+			if (hasJavafxState) {
+				javafxState.restore(app.getShadow());
+			}
+		} else {
+			javafx.makeCurrent();
+		}
+	}
+	
+	/**
+	 * Go back to the app after JavaFX rendering. Undoes {@link #switchToJavaFX()}.
+	 */
+	@CalledByMainThread
+	public static void switchToApp() {
+		if (isSingleContext()) {
+			javafxState.backup(app.getShadow());
+			hasJavafxState = true;
+			appState.restore(app.getShadow());
+			
+			// and now the app can change anything again
+			app.invalidateState();
+		} else {
+			app.makeCurrent();
+		}
+	}
+	
 	public static JFXGLContext makeNewPane(OpenGLPane.OpenGLNode pane) {
 		JFXGLContext context = JFXGLContext.makeNewSharedWith(app.hwnd);
 		panes.put(pane, context);
@@ -34,10 +141,12 @@ public class JFXGLContexts {
 		// NOTE: don't cleanup the app context
 		// its window is managed by the app
 		
-		if (javafx != null) {
+		// in single-context mode, the JavaFX context is the app context
+		if (javafx != null && javafx != app) {
 			javafx.cleanup();
-			javafx = null;
 		}
+		javafx = null;
+		hasJavafxState = false;
 	
 		for (JFXGLContext context : panes.values()) {
 			context.cleanup();
@@ -52,7 +161,19 @@ public class JFXGLContexts {
 	public static void makeCurrent(JFXGLContext context) {
 		if (current != context) {
 			current = context;
+			FrameStats stats = JFXGL.getFrameStats();
+			stats.begin(FrameStats.Phase.ContextSwitch);
 			GLFW.glfwMakeContextCurrent(current.hwnd);
+			stats.end(FrameStats.Phase.ContextSwitch);
+			
+			// JFXGL has the JavaFX context to itself, so its shadow state is still good,
+			// but the app and panes can change anything in their contexts without telling us
+			if (current == javafx) {
+				// NOTE: contexts get used while other contexts are current (eg to composite), so the uniform program could be stale
+				current.forgetCurrentProgram();
+			} else {
+				current.invalidateState();
+			}
 		}
 	}
 }
@@ -11,12 +11,35 @@ package com.sun.prism.es2;
 
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL43;
+import org.lwjgl.opengl.GL45;
 
+/**
+ * A framebuffer with a texture, that can be composited into another framebuffer.
+ * <p>
+ * The texture can be bigger than the buffer, so resizing (eg dragging a window edge) doesn't have to
+ * reallocate it every time. The contents are always in the lower left corner of the texture,
+ * so render into a viewport of 0, 0, {@link #getWidth()}, {@link #getHeight()}.
+ */
 public class OffscreenBuffer {
 
+	/**
+	 * When the buffer grows past its texture, the new texture gets this much extra room (as a fraction of the new size),
+	 * so the next few resizes fit without reallocating.
+	 */
+	public static float growthSlack = 0.25f;
+	
+	/**
+	 * The texture only shrinks to fit the buffer after the buffer size hasn't changed for this long.
+	 */
+	public static long shrinkDelayMs = 1000;
+	
 	private JFXGLContext context;
 	private int width = 0;
 	private int height = 0;
+	private int texWidth = 0;
+	private int texHeight = 0;
+	private long resizeNs = 0;
 	private int texId = 0;
 	private int fboId = 0;
 	private boolean quadDirty = true;
@@ -47,32 +70,126 @@ public class OffscreenBuffer {
 		return height;
 	}
 	
+	/**
+	 * Returns the width of the texture, which can be bigger than the buffer.
+	 */
+	public int getTexWidth() {
+		return texWidth;
+	}
+	
+	/**
+	 * Returns the height of the texture, which can be bigger than the buffer.
+	 */
+	public int getTexHeight() {
+		return texHeight;
+	}
+	
+	/**
+	 * Changes the size of the buffer. Call this every frame, even if the size didn't change,
+	 * so the texture can shrink after the size settles.
+	 *
+	 * @return true if the size of the buffer changed
+	 */
 	public boolean resize(int width, int height) {
 		
 		if (this.width == width && this.height == height) {
+			
+			// shrink the texture, but only after the size settles
+			// NOTE: JavaFX only repaints the dirty parts when the size doesn't change, so keep the contents
+			if (isOversized() && System.nanoTime() - resizeNs >= shrinkDelayMs*1000000) {
+				allocate(getPaddedSize(width), getPaddedSize(height), true);
+			}
+			
 			return false;
 		}
 		
 		this.width = width;
 		this.height = height;
+		resizeNs = System.nanoTime();
+		
+		// grow the texture if needed
+		if (texId == 0) {
+			
+			// the first size is probably going to stick around, so don't pad it
+			allocate(width, height, false);
+		
+		} else if (width > texWidth || height > texHeight) {
+			allocate(
+				width > texWidth ? getPaddedSize(width) : texWidth,
+				height > texHeight ? getPaddedSize(height) : texHeight,
+				false
+			);
+		}
+		
+		// the quad needs to cover the new size
+		quadDirty = true;
+		
+		return true;
+	}
+	
+	private static int getPaddedSize(int size) {
+		return size + (int)(size*growthSlack);
+	}
 	
+	private boolean isOversized() {
+		
+		// don't shrink to nothing, eg while the window is minimized
+		if (width <= 0 || height <= 0) {
+			return false;
+		}
+		
+		return texWidth > getPaddedSize(width) || texHeight > getPaddedSize(height);
+	}
+	
+	private void allocate(int texWidth, int texHeight, boolean keepContents) {
+		
+		this.texWidth = texWidth;
+		this.texHeight = texHeight;
+		
 		// resize the texture
-		if (texId != 0) {
-			context.deleteTexture(texId);
+		int oldTexId = texId;
+		texId = context.createUnboundTexture(texWidth, texHeight);
+		if (oldTexId != 0) {
+			if (keepContents) {
+				copyContents(oldTexId, texId);
+			}
+			context.deleteTexture(oldTexId);
 		}
-		texId = context.createTexture(width, height);
 		
 		// update the framebuf
-		if (fboId == 0) {
-			fboId = GL30.glGenFramebuffers();
+		if (context.isDirectStateAccess()) {
+			if (fboId == 0) {
+				fboId = GL45.glCreateFramebuffers();
+			}
+			GL45.glNamedFramebufferTexture(fboId, GL30.GL_COLOR_ATTACHMENT0, texId, 0);
+		} else {
+			if (fboId == 0) {
+				fboId = GL30.glGenFramebuffers();
+			}
+			context.bindFBO(fboId);
+			GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, texId, 0);
 		}
-		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, fboId);
-		GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, texId, 0);
 		
-		// remove the old quad
+		// the quad needs the new texture
 		quadDirty = true;
-		
-		return true;
+	}
+	
+	private void copyContents(int srcTexId, int dstTexId) {
+		if (context.getFeatures().hasCopyImage) {
+			GL43.glCopyImageSubData(
+				srcTexId, GL11.GL_TEXTURE_2D, 0, 0, 0, 0,
+				dstTexId, GL11.GL_TEXTURE_2D, 0, 0, 0, 0,
+				width, height, 1
+			);
+		} else {
+			
+			// read from the framebuffer, which still has the old texture attached
+			int oldFboId = context.getBoundFBO();
+			context.bindFBO(fboId);
+			context.bindTexture(dstTexId);
+			GL11.glCopyTexSubImage2D(GL11.GL_TEXTURE_2D, 0, 0, 0, 0, 0, width, height);
+			context.bindFBO(oldFboId);
+		}
 	}
 	
 	public int getTexId() {
@@ -105,10 +222,16 @@ public class OffscreenBuffer {
 		
 		if (quadDirty) {
 			quadDirty = false;
-			if (quad != null) {
-				quad.cleanup();
+			
+			// only draw the part of the texture the buffer uses
+			float u = (float)width/texWidth;
+			float v = (float)height/texHeight;
+			if (quad == null) {
+				quad = new TexturedQuad(0, 0, width, height, u, v, texId, quadShader);
+			} else {
+				quad.update(0, 0, width, height, u, v);
+				quad.texId = texId;
 			}
-			quad = new TexturedQuad(0, 0, width, height, texId, quadShader);
 		}
 		quad.render();
 	}
@@ -120,7 +243,7 @@ public class OffscreenBuffer {
 	public void cleanup() {
 		context.deleteTexture(texId);
 		if (fboId != 0) {
-			GL30.glDeleteFramebuffers(fboId);
+			context.deleteFBO(fboId);
 		}
 		if (quad != null) {
 			quad.cleanup();
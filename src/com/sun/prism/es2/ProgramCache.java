@@ -0,0 +1,206 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package com.sun.prism.es2;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL41;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+import cuchaz.jfxgl.CalledByMainThread;
+
+/**
+ * Saves linked shader programs to disk as driver-specific binaries, so later runs can skip compiling and linking.
+ * <p>
+ * Programs are keyed by a hash of their translated sources, their attribute bindings, and the driver
+ * (vendor, renderer, and version), so a driver update just makes a new set of binaries.
+ * Drivers can reject binaries anyway, so callers should always be ready to compile from source instead.
+ */
+public class ProgramCache {
+	
+	private static final int FileVersion = 1;
+	
+	private final File dir;
+	private final String driver;
+	
+	private ProgramCache(File dir) {
+		this.dir = dir;
+		this.driver = GL11.glGetString(GL11.GL_VENDOR) + "\n" + GL11.glGetString(GL11.GL_RENDERER) + "\n" + GL11.glGetString(GL11.GL_VERSION);
+	}
+	
+	/**
+	 * Returns a cache for the current context, or null if the context can't save program binaries.
+	 */
+	@CalledByMainThread
+	public static ProgramCache makeIfSupported(GLFeatures features, File dir) {
+		
+		if (dir == null || !features.hasProgramBinary) {
+			return null;
+		}
+		
+		// some drivers support the extension, but don't actually have any binary formats
+		if (GL11.glGetInteger(GL41.GL_NUM_PROGRAM_BINARY_FORMATS) <= 0) {
+			return null;
+		}
+		
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			System.err.println("WARNING: can't create program cache folder: " + dir.getAbsolutePath());
+			return null;
+		}
+		
+		return new ProgramCache(dir);
+	}
+	
+	public String makeKey(List<String> sources, String[] attrs, int[] indices) {
+		
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new Error("SHA-1 should always be available", ex);
+		}
+		
+		update(digest, driver);
+		for (String source : sources) {
+			update(digest, source);
+		}
+		for (int i=0; i<attrs.length; i++) {
+			update(digest, attrs[i] + "=" + indices[i]);
+		}
+		
+		StringBuilder buf = new StringBuilder();
+		for (byte b : digest.digest()) {
+			buf.append(String.format("%02x", b & 0xff));
+		}
+		return buf.toString();
+	}
+	
+	private static void update(MessageDigest digest, String val) {
+		digest.update(val.getBytes(StandardCharsets.UTF_8));
+		
+		// separate the strings, so different splits of the same characters get different hashes
+		digest.update((byte)0);
+	}
+	
+	private File getFile(String key) {
+		return new File(dir, key + ".bin");
+	}
+	
+	/**
+	 * Call this before linking a program that should be saved later.
+	 */
+	public void prepare(int programId) {
+		GL41.glProgramParameteri(programId, GL41.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL11.GL_TRUE);
+	}
+	
+	/**
+	 * Tries to load the cached binary into the program.
+	 *
+	 * @return true if the program is linked and ready to use
+	 */
+	@CalledByMainThread
+	public boolean load(int programId, String key) {
+		
+		File file = getFile(key);
+		if (!file.exists()) {
+			return false;
+		}
+		
+		int format;
+		byte[] binary;
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			if (in.readInt() != FileVersion) {
+				file.delete();
+				return false;
+			}
+			format = in.readInt();
+			binary = new byte[in.readInt()];
+			in.readFully(binary);
+		} catch (IOException ex) {
+			System.err.println("WARNING: can't read cached program binary: " + file.getAbsolutePath() + "\n\t" + ex.getMessage());
+			file.delete();
+			return false;
+		}
+		
+		ByteBuffer buf = MemoryUtil.memAlloc(binary.length);
+		try {
+			buf.put(binary);
+			buf.flip();
+			GL41.glProgramBinary(programId, format, buf);
+		} finally {
+			MemoryUtil.memFree(buf);
+		}
+		
+		// the driver can reject binaries for any reason at all, so don't try this one again
+		boolean isSuccess = GL20.glGetProgrami(programId, GL20.GL_LINK_STATUS) == GL11.GL_TRUE;
+		if (!isSuccess) {
+			file.delete();
+		}
+		return isSuccess;
+	}
+	
+	/**
+	 * Saves the binary of a linked program. Failures are only warnings, since the cache is just an optimization.
+	 */
+	@CalledByMainThread
+	public void save(int programId, String key) {
+		
+		int size = GL20.glGetProgrami(programId, GL41.GL_PROGRAM_BINARY_LENGTH);
+		if (size <= 0) {
+			return;
+		}
+		
+		int format;
+		byte[] binary;
+		ByteBuffer buf = MemoryUtil.memAlloc(size);
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			IntBuffer lengthBuf = stack.mallocInt(1);
+			IntBuffer formatBuf = stack.mallocInt(1);
+			GL41.glGetProgramBinary(programId, lengthBuf, formatBuf, buf);
+			format = formatBuf.get(0);
+			binary = new byte[lengthBuf.get(0)];
+			buf.get(binary);
+		} finally {
+			MemoryUtil.memFree(buf);
+		}
+		
+		// write to a temp file first, so other processes never see half a binary
+		File file = getFile(key);
+		File tempFile = new File(dir, key + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tempFile))) {
+				out.writeInt(FileVersion);
+				out.writeInt(format);
+				out.writeInt(binary.length);
+				out.write(binary);
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException ex) {
+			System.err.println("WARNING: can't save program binary: " + file.getAbsolutePath() + "\n\t" + ex.getMessage());
+			tempFile.delete();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package com.sun.prism.es2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The shader programs JavaFX used, with the original (untranslated) sources, so they can be compiled
+ * ahead of time on a later run. See {@link JFXGLContext#warmUp(ShaderSet)}.
+ */
+public class ShaderSet {
+	
+	private static final int FileVersion = 1;
+	
+	public static class Program {
+		
+		public final String vertexSource;
+		public final List<String> fragmentSources;
+		public final String[] attrs;
+		public final int[] indices;
+		
+		public Program(String vertexSource, List<String> fragmentSources, String[] attrs, int[] indices) {
+			this.vertexSource = vertexSource;
+			this.fragmentSources = fragmentSources;
+			this.attrs = attrs;
+			this.indices = indices;
+		}
+		
+		private String getKey() {
+			StringBuilder buf = new StringBuilder();
+			buf.append(vertexSource);
+			for (String source : fragmentSources) {
+				buf.append('\0');
+				buf.append(source);
+			}
+			for (int i=0; i<attrs.length; i++) {
+				buf.append('\0');
+				buf.append(attrs[i]);
+				buf.append('=');
+				buf.append(indices[i]);
+			}
+			return buf.toString();
+		}
+	}
+	
+	private final List<Program> programs = new ArrayList<>();
+	private final Set<String> keys = new HashSet<>();
+	
+	/**
+	 * @return false if the set already had this program
+	 */
+	public boolean add(Program program) {
+		if (!keys.add(program.getKey())) {
+			return false;
+		}
+		programs.add(program);
+		return true;
+	}
+	
+	public void addAll(ShaderSet other) {
+		for (Program program : other.programs) {
+			add(program);
+		}
+	}
+	
+	public List<Program> getPrograms() {
+		return Collections.unmodifiableList(programs);
+	}
+	
+	public int size() {
+		return programs.size();
+	}
+	
+	public void write(File file)
+	throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(FileVersion);
+			out.writeInt(programs.size());
+			for (Program program : programs) {
+				writeString(out, program.vertexSource);
+				out.writeInt(program.fragmentSources.size());
+				for (String source : program.fragmentSources) {
+					writeString(out, source);
+				}
+				out.writeInt(program.attrs.length);
+				for (int i=0; i<program.attrs.length; i++) {
+					writeString(out, program.attrs[i]);
+					out.writeInt(program.indices[i]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reads a set written by {@link #write(File)}. Sets from other versions of JFXGL come back empty.
+	 */
+	public static ShaderSet read(File file)
+	throws IOException {
+		ShaderSet set = new ShaderSet();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != FileVersion) {
+				return set;
+			}
+			int numPrograms = in.readInt();
+			for (int i=0; i<numPrograms; i++) {
+				String vertexSource = readString(in);
+				int numFragments = in.readInt();
+				List<String> fragmentSources = new ArrayList<>(numFragments);
+				for (int j=0; j<numFragments; j++) {
+					fragmentSources.add(readString(in));
+				}
+				int numAttrs = in.readInt();
+				String[] attrs = new String[numAttrs];
+				int[] indices = new int[numAttrs];
+				for (int j=0; j<numAttrs; j++) {
+					attrs[j] = readString(in);
+					indices[j] = in.readInt();
+				}
+				set.add(new Program(vertexSource, fragmentSources, attrs, indices));
+			}
+		}
+		return set;
+	}
+	
+	private static void writeString(DataOutputStream out, String val)
+	throws IOException {
+		// NOTE: shaders can be longer than writeUTF() allows
+		byte[] bytes = val.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readString(DataInputStream in)
+	throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,295 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package com.sun.prism.es2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Translates JavaFX's GLSL ES shaders into GLSL 150 for core profiles.
+ * <p>
+ * The build translates all the JavaFX shaders ahead of time (see {@link #main(String[])}),
+ * so at runtime, {@link #loadPretranslated} just finds the translated resource by the hash of the original source.
+ * Shaders that weren't translated ahead of time (eg after a JavaFX update) get translated at runtime instead.
+ */
+public class ShaderTranslator {
+	
+	public static final String AlphaUniformPrefix = "jfxglAlpha_";
+	public static final String PretranslatedPath = "com/sun/prism/es2/glsl150/";
+	
+	private static final String SamplersComment = "// samplers:";
+	private static final Pattern SamplerPattern = Pattern.compile("uniform\\s+(?:(?:lowp|mediump|highp)\\s+)?sampler2D\\s+(\\w+)\\s*;");
+	private static final Pattern LegacyPattern = Pattern.compile("\\b(attribute|varying|gl_FragColor|texture2D)\\b");
+	
+	public static class Result {
+		
+		public final String source;
+		
+		/** names of the samplers that got alpha flags, or null if the alpha swizzle wasn't added */
+		public final List<String> samplers;
+		
+		public Result(String source, List<String> samplers) {
+			this.source = source;
+			this.samplers = samplers;
+		}
+	}
+	
+	public static boolean needsTranslation(String source) {
+		return source.startsWith("#ifdef GL_ES\n");
+	}
+	
+	/**
+	 * @param alphaInShader true if textures can't swizzle red to alpha, so the shader has to do it
+	 */
+	public static Result translate(String source, boolean isVertex, boolean alphaInShader) {
+		
+		if (!needsTranslation(source)) {
+			return new Result(source, null);
+		}
+		
+		List<String> samplers = null;
+		
+		// replace attribute with in
+		source = source.replaceAll("attribute ", "in ");
+		
+		if (isVertex) {
+			
+			// replace varying with out
+			source = source.replaceAll("varying ", "out ");
+		
+		} else {
+			
+			// replace varying with in
+			source = source.replaceAll("varying ", "in ");
+			
+			// add an out var for the color
+			source = source.replaceAll("gl_FragColor", "outFragColor");
+			source = "out vec4 outFragColor;\n\n" + source;
+			
+			// without texture swizzles, alpha textures come out as red, so handle alpha in the shader instead
+			if (alphaInShader) {
+				samplers = findSamplers(source);
+				if (samplers.isEmpty()) {
+					samplers = null;
+				} else {
+					source = addAlphaSwizzle(source, samplers);
+				}
+			}
+			
+			// replace calls to texture2D with texture
+			source = source.replaceAll("texture2D", "texture");
+		}
+		
+		source = "#version 150\n\n" + source;
+		
+		return new Result(source, samplers);
+	}
+	
+	private static List<String> findSamplers(String source) {
+		List<String> samplers = new ArrayList<>();
+		Matcher matcher = SamplerPattern.matcher(source);
+		while (matcher.find()) {
+			samplers.add(matcher.group(1));
+		}
+		return samplers;
+	}
+	
+	private static String addAlphaSwizzle(String source, List<String> samplers) {
+		
+		// add a flag for each sampler, and send sampler reads through a function that can move red to alpha
+		StringBuilder header = new StringBuilder();
+		for (String sampler : samplers) {
+			header.append("uniform bool " + AlphaUniformPrefix + sampler + ";\n");
+			source = source.replaceAll(
+				"texture2D\\s*\\(\\s*" + sampler + "\\s*,",
+				"jfxglTexture(" + sampler + ", " + AlphaUniformPrefix + sampler + ","
+			);
+		}
+		header.append("vec4 jfxglTexture(sampler2D tex, bool isAlpha, vec2 coord) {\n");
+		header.append("\tvec4 color = texture(tex, coord);\n");
+		header.append("\treturn isAlpha ? vec4(0.0, 0.0, 0.0, color.r) : color;\n");
+		header.append("}\n\n");
+		
+		// NOTE: put the header after the precision/define preamble, but before the samplers get used
+		Matcher matcher = SamplerPattern.matcher(source);
+		matcher.find();
+		int pos = matcher.start();
+		return source.substring(0, pos) + header.toString() + source.substring(pos);
+	}
+	
+	/**
+	 * Throws if the translated source still uses anything core profiles don't have.
+	 */
+	public static void check(Result result) {
+		Matcher matcher = LegacyPattern.matcher(result.source);
+		if (matcher.find()) {
+			throw new IllegalStateException("translated shader still uses " + matcher.group(1) + ":\n" + result.source);
+		}
+	}
+	
+	public static String getPretranslatedName(String source, boolean isVertex, boolean alphaInShader) {
+		
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new Error("SHA-1 should always be available", ex);
+		}
+		
+		StringBuilder buf = new StringBuilder();
+		for (byte b : digest.digest(source.getBytes(StandardCharsets.UTF_8))) {
+			buf.append(String.format("%02x", b & 0xff));
+		}
+		
+		// vertex shaders don't depend on the alpha swizzle
+		if (isVertex) {
+			buf.append(".vert");
+		} else if (alphaInShader) {
+			buf.append("-alpha.frag");
+		} else {
+			buf.append(".frag");
+		}
+		return buf.toString();
+	}
+	
+	/**
+	 * Returns the translation made by the build, or null if the build didn't translate this shader.
+	 */
+	public static Result loadPretranslated(String source, boolean isVertex, boolean alphaInShader) {
+		
+		String path = PretranslatedPath + getPretranslatedName(source, isVertex, alphaInShader);
+		try (InputStream in = ShaderTranslator.class.getClassLoader().getResourceAsStream(path)) {
+			if (in == null) {
+				return null;
+			}
+			return fromResource(new String(readAll(in), StandardCharsets.UTF_8));
+		} catch (IOException ex) {
+			throw new RuntimeException("can't read translated shader: " + path, ex);
+		}
+	}
+	
+	public static String toResource(Result result) {
+		
+		// GLSL allows comments before the #version line, so keep the samplers there
+		StringBuilder buf = new StringBuilder();
+		if (result.samplers != null) {
+			buf.append(SamplersComment);
+			for (String sampler : result.samplers) {
+				buf.append(" ");
+				buf.append(sampler);
+			}
+			buf.append("\n");
+		}
+		buf.append(result.source);
+		return buf.toString();
+	}
+	
+	public static Result fromResource(String resource) {
+		
+		if (!resource.startsWith(SamplersComment)) {
+			return new Result(resource, null);
+		}
+		
+		int end = resource.indexOf('\n');
+		String samplers = resource.substring(SamplersComment.length(), end).trim();
+		return new Result(resource.substring(end + 1), Arrays.asList(samplers.split(" ")));
+	}
+	
+	private static byte[] readAll(InputStream in)
+	throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int n;
+		while ((n = in.read(buf)) >= 0) {
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Translates every ES2 shader in a JavaFX jar, for the build.
+	 *
+	 * @return the translated files
+	 */
+	public static List<File> translateAll(File jarFile, File outDir)
+	throws IOException {
+		
+		if (!outDir.isDirectory() && !outDir.mkdirs()) {
+			throw new IOException("can't create folder: " + outDir.getAbsolutePath());
+		}
+		
+		List<File> files = new ArrayList<>();
+		try (ZipFile zip = new ZipFile(jarFile)) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				
+				ZipEntry entry = entries.nextElement();
+				String name = entry.getName();
+				if (!name.contains("/es2/glsl/")) {
+					continue;
+				}
+				boolean isVertex = name.endsWith(".vert");
+				if (!isVertex && !name.endsWith(".frag")) {
+					continue;
+				}
+				
+				String source;
+				try (InputStream in = zip.getInputStream(entry)) {
+					source = new String(readAll(in), StandardCharsets.UTF_8);
+				}
+				if (!needsTranslation(source)) {
+					continue;
+				}
+				
+				// fragment shaders need both versions of the alpha swizzle
+				for (boolean alphaInShader : isVertex ? new boolean[] { false } : new boolean[] { false, true }) {
+					
+					Result result = translate(source, isVertex, alphaInShader);
+					try {
+						check(result);
+					} catch (IllegalStateException ex) {
+						throw new IllegalStateException("bad translation of " + name, ex);
+					}
+					
+					File file = new File(outDir, getPretranslatedName(source, isVertex, alphaInShader));
+					Files.write(file.toPath(), toResource(result).getBytes(StandardCharsets.UTF_8));
+					files.add(file);
+				}
+			}
+		}
+		return files;
+	}
+	
+	public static void main(String[] args)
+	throws IOException {
+		
+		if (args.length != 2) {
+			System.err.println("usage: ShaderTranslator <jfxrt.jar> <out dir>");
+			System.exit(1);
+		}
+		
+		List<File> files = translateAll(new File(args[0]), new File(args[1]));
+		System.out.println("Translated " + files.size() + " shaders");
+	}
+}
@@ -0,0 +1,305 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package com.sun.prism.es2;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GL44;
+
+/**
+ * A ring of GPU memory for data that changes every draw, like vertices or pixels to upload.
+ * <p>
+ * If buffer storage is supported, the whole buffer is mapped once (persistent and coherent),
+ * and the ring is split into sections guarded by fences, so we never write over data the GPU
+ * hasn't drawn yet. Otherwise, each region is mapped unsynchronized, and the buffer is
+ * orphaned whenever the ring wraps around, so the driver can hand us fresh storage.
+ * <p>
+ * Lives in the context that created it, and expects to stay bound to its target while mapping.
+ * <p>
+ * Sections are only fenced when a later region moves out of them, so map everything one draw needs as a single region.
+ * Otherwise, the second region could orphan the storage or fence the section before the draw that reads the first one.
+ */
+public class StreamingBuffer {
+	
+	private static final int NumSections = 4;
+	private static final int Alignment = 16;
+	private static final long FenceTimeoutNs = 1000*1000; // 1 ms
+	
+	/**
+	 * Where the regions go in the ring, kept apart from the GL calls.
+	 */
+	static class Ring {
+		
+		public final int size;
+		public final int sectionSize;
+		
+		private int offset = 0;
+		private int section = 0;
+		
+		/** the section the last region moved out of, or -1 if it stayed in the same section */
+		public int leftSection = -1;
+		
+		/** true if the last region went back to the start of the ring */
+		public boolean wrapped = false;
+		
+		public Ring(int size, int numSections) {
+			this.size = size;
+			this.sectionSize = size/numSections;
+		}
+		
+		public int getSection() {
+			return section;
+		}
+		
+		/**
+		 * Finds room for the next region, which has to fit in one section.
+		 *
+		 * @return the offset of the region
+		 */
+		public int reserve(int numBytes) {
+			
+			leftSection = -1;
+			wrapped = false;
+			
+			// will the region fit before the end of the section?
+			// NOTE: keep track of the section, rather than computing it from the offset,
+			// since a region that ends exactly on a boundary leaves the offset at the start of the next section
+			int sectionEnd = (section + 1)*sectionSize;
+			if (offset + numBytes > sectionEnd) {
+				offset = sectionEnd;
+			}
+			if (offset >= size) {
+				offset = 0;
+				wrapped = true;
+			}
+			
+			int newSection = offset/sectionSize;
+			if (newSection != section) {
+				leftSection = section;
+				section = newSection;
+			}
+			
+			// the next region starts after this one, aligned
+			int regionOffset = offset;
+			offset += (numBytes + Alignment - 1)/Alignment*Alignment;
+			return regionOffset;
+		}
+	}
+	
+	private final int target;
+	private final boolean isPersistent;
+	
+	private int id;
+	private Ring ring;
+	private int regionOffset;
+	private ByteBuffer mapped;
+	private FloatBuffer floatView;
+	private ByteBuffer floatViewOf;
+	private long[] fences;
+	
+	public StreamingBuffer(int target, boolean isPersistent, int size) {
+		this.target = target;
+		this.isPersistent = isPersistent;
+		this.id = 0;
+		this.mapped = null;
+		this.floatView = null;
+		this.floatViewOf = null;
+		this.fences = new long[NumSections];
+		allocate(size);
+	}
+	
+	public int getId() {
+		return id;
+	}
+	
+	public boolean isPersistent() {
+		return isPersistent;
+	}
+	
+	public void bind() {
+		GL15.glBindBuffer(target, id);
+	}
+	
+	public void unbind() {
+		GL15.glBindBuffer(target, 0);
+	}
+	
+	/**
+	 * Returns the size of the largest region that fits without growing the ring.
+	 */
+	public int getMaxRegionBytes() {
+		return ring.sectionSize;
+	}
+	
+	private void allocate(int size) {
+		
+		// round up to something the sections and alignment divide evenly
+		int granularity = NumSections*Alignment;
+		size = (size + granularity - 1)/granularity*granularity;
+		
+		ring = new Ring(size, NumSections);
+		
+		id = GL15.glGenBuffers();
+		GL15.glBindBuffer(target, id);
+		
+		if (isPersistent) {
+			int flags = GL30.GL_MAP_WRITE_BIT | GL44.GL_MAP_PERSISTENT_BIT | GL44.GL_MAP_COHERENT_BIT;
+			GL44.glBufferStorage(target, size, flags);
+			mapped = GL30.glMapBufferRange(target, 0, size, flags);
+			if (mapped == null) {
+				throw new RuntimeException("can't map streaming buffer");
+			}
+		} else {
+			GL15.glBufferData(target, size, GL15.GL_STREAM_DRAW);
+		}
+	}
+	
+	/**
+	 * Reserves space in the ring and returns a buffer to write it through.
+	 * <p>
+	 * Write the data at the buffer's current position (relative puts are fine), then call {@link #unmap()}
+	 * before drawing. Use {@link #getOffset()} to point vertex attributes at the data.
+	 */
+	public ByteBuffer map(int numBytes) {
+		
+		// sections have to fit a whole region, so make sure the ring is big enough
+		if (numBytes > ring.sectionSize) {
+			cleanup();
+			allocate(Math.max(ring.size*2, numBytes*NumSections));
+		}
+		
+		regionOffset = ring.reserve(numBytes);
+		
+		if (isPersistent) {
+			
+			// when we move into a new section, fence off the one we're leaving,
+			// and make sure the GPU is done with the one we're entering
+			if (ring.leftSection >= 0) {
+				fenceSection(ring.leftSection);
+				waitSection(ring.getSection());
+			}
+			
+			mapped.limit(regionOffset + numBytes);
+			mapped.position(regionOffset);
+		
+		} else {
+			
+			// when we wrap around, orphan the old storage instead of waiting on the GPU
+			if (ring.wrapped) {
+				GL15.glBufferData(target, ring.size, GL15.GL_STREAM_DRAW);
+			}
+			
+			int access = GL30.GL_MAP_WRITE_BIT | GL30.GL_MAP_UNSYNCHRONIZED_BIT | GL30.GL_MAP_INVALIDATE_RANGE_BIT;
+			mapped = GL30.glMapBufferRange(target, regionOffset, numBytes, access, mapped);
+			if (mapped == null) {
+				throw new RuntimeException("can't map streaming buffer");
+			}
+			mapped.clear();
+		}
+		
+		return mapped;
+	}
+	
+	/**
+	 * Returns a float view of the start of the last mapped region, so arrays can be copied in bulk.
+	 * <p>
+	 * The view is cached, so this doesn't allocate unless the mapping changed.
+	 */
+	public FloatBuffer getFloats(int numFloats) {
+		
+		ByteBuffer bytes = mapped;
+		
+		// make a new view if we need to, always starting at the beginning of the mapping
+		if (floatViewOf != bytes) {
+			int pos = bytes.position();
+			int limit = bytes.limit();
+			bytes.clear();
+			floatView = bytes.asFloatBuffer();
+			floatViewOf = bytes;
+			bytes.limit(limit);
+			bytes.position(pos);
+		}
+		
+		// NOTE: regions are aligned, so the start always lands on a whole float
+		// and unsynchronized mappings only cover the region, so it starts at 0
+		int start = (isPersistent ? regionOffset : 0)/Float.BYTES;
+		floatView.clear();
+		floatView.position(start);
+		floatView.limit(start + numFloats);
+		return floatView;
+	}
+	
+	/**
+	 * Returns the offset in the GL buffer of the last mapped region.
+	 */
+	public int getOffset() {
+		return regionOffset;
+	}
+	
+	public void unmap() {
+		if (!isPersistent) {
+			GL15.glUnmapBuffer(target);
+		}
+	}
+	
+	private void fenceSection(int section) {
+		if (fences[section] != 0) {
+			GL32.glDeleteSync(fences[section]);
+		}
+		fences[section] = GL32.glFenceSync(GL32.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+	}
+	
+	private void waitSection(int section) {
+		
+		long fence = fences[section];
+		if (fence == 0) {
+			return;
+		}
+		
+		while (true) {
+			int result = GL32.glClientWaitSync(fence, GL32.GL_SYNC_FLUSH_COMMANDS_BIT, FenceTimeoutNs);
+			if (result != GL32.GL_TIMEOUT_EXPIRED) {
+				break;
+			}
+		}
+		
+		GL32.glDeleteSync(fence);
+		fences[section] = 0;
+	}
+	
+	public void cleanup() {
+		
+		for (int i=0; i<NumSections; i++) {
+			if (fences[i] != 0) {
+				GL32.glDeleteSync(fences[i]);
+				fences[i] = 0;
+			}
+		}
+		
+		if (id != 0) {
+			
+			if (isPersistent) {
+				GL15.glBindBuffer(target, id);
+				GL15.glUnmapBuffer(target);
+			}
+			
+			GL15.glDeleteBuffers(id);
+			id = 0;
+		}
+		
+		mapped = null;
+		floatView = null;
+		floatViewOf = null;
+	}
+}
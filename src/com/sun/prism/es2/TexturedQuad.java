@@ -14,10 +14,10 @@ import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL13;
 import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL45;
 import org.lwjgl.system.MemoryStack;
 
 public class TexturedQuad {
@@ -94,60 +94,115 @@ public class TexturedQuad {
 	public int texId;
 	
 	public TexturedQuad(int x, int y, int w, int h, int texId, Shader shader) {
+		this(x, y, w, h, 1, 1, texId, shader);
+	}
+	
+	/**
+	 * @param u the largest texture x coordinate, eg to draw only part of the texture
+	 * @param v the largest texture y coordinate
+	 */
+	public TexturedQuad(int x, int y, int w, int h, float u, float v, int texId, Shader shader) {
 		
 		this.shader = shader;
 		this.texId = texId;
 		
-		// make the vertex array
-		vaoId = GL30.glGenVertexArrays();
-		GL30.glBindVertexArray(vaoId);
+		// NOTE: bind things through the context, so it can keep track of the GL state
+		JFXGLContext context = shader.context;
 		
 		try (MemoryStack m = MemoryStack.stackPush()) {
 	
-			// make the indices
 			ByteBuffer indexBuf = m.bytes(new byte[] {
 				0, 1, 2,
 				0, 2, 3
 			});
-			iboId = GL15.glGenBuffers();
-			GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, iboId);
-			GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indexBuf, GL15.GL_STATIC_DRAW);
+			FloatBuffer vertexBuf = makeVertices(m, x, y, w, h, u, v);
 			
-			// make the vertices
-			FloatBuffer vertexBuf = m.floats(new float[] {
-				x + 0, y + 0, 0, 0,
-				x + w, y + 0, 1, 0,
-				x + w, y + h, 1, 1,
-				x + 0, y + h, 0, 1
-			});
-			vboId = GL15.glGenBuffers();
-			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboId);
-			GL15.glBufferData(GL15.GL_ARRAY_BUFFER, vertexBuf, GL15.GL_STATIC_DRAW);
-			GL20.glEnableVertexAttribArray(0);
-			GL20.glVertexAttribPointer(0, 2, GL11.GL_FLOAT, false, Float.BYTES*4, 0);
-			GL20.glEnableVertexAttribArray(1);
-			GL20.glVertexAttribPointer(1, 2, GL11.GL_FLOAT, false, Float.BYTES*4, Float.BYTES*2);
+			if (context.isDirectStateAccess()) {
+				
+				// make the buffers
+				iboId = GL45.glCreateBuffers();
+				GL45.glNamedBufferData(iboId, indexBuf, GL15.GL_STATIC_DRAW);
+				vboId = GL45.glCreateBuffers();
+				GL45.glNamedBufferData(vboId, vertexBuf, GL15.GL_STATIC_DRAW);
+				
+				// make the vertex array, without binding anything
+				vaoId = GL45.glCreateVertexArrays();
+				GL45.glVertexArrayElementBuffer(vaoId, iboId);
+				GL45.glVertexArrayVertexBuffer(vaoId, 0, vboId, 0, Float.BYTES*4);
+				GL45.glEnableVertexArrayAttrib(vaoId, 0);
+				GL45.glVertexArrayAttribFormat(vaoId, 0, 2, GL11.GL_FLOAT, false, 0);
+				GL45.glVertexArrayAttribBinding(vaoId, 0, 0);
+				GL45.glEnableVertexArrayAttrib(vaoId, 1);
+				GL45.glVertexArrayAttribFormat(vaoId, 1, 2, GL11.GL_FLOAT, false, Float.BYTES*2);
+				GL45.glVertexArrayAttribBinding(vaoId, 1, 0);
+			
+			} else {
+				
+				// make the vertex array
+				vaoId = GL30.glGenVertexArrays();
+				context.bindVertexArray(vaoId);
+				
+				// make the indices
+				iboId = GL15.glGenBuffers();
+				context.setIndexBuffer(iboId);
+				GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indexBuf, GL15.GL_STATIC_DRAW);
+				
+				// make the vertices
+				vboId = GL15.glGenBuffers();
+				context.bindArrayBuffer(vboId);
+				GL15.glBufferData(GL15.GL_ARRAY_BUFFER, vertexBuf, GL15.GL_STATIC_DRAW);
+				GL20.glEnableVertexAttribArray(0);
+				GL20.glVertexAttribPointer(0, 2, GL11.GL_FLOAT, false, Float.BYTES*4, 0);
+				GL20.glEnableVertexAttribArray(1);
+				GL20.glVertexAttribPointer(1, 2, GL11.GL_FLOAT, false, Float.BYTES*4, Float.BYTES*2);
+				
+				// unbind things
+				context.bindArrayBuffer(0);
+				context.bindVertexArray(0);
+			}
+		}
+	}
+	
+	private static FloatBuffer makeVertices(MemoryStack m, int x, int y, int w, int h, float u, float v) {
+		return m.floats(new float[] {
+			x + 0, y + 0, 0, 0,
+			x + w, y + 0, u, 0,
+			x + w, y + h, u, v,
+			x + 0, y + h, 0, v
+		});
+	}
+	
+	/**
+	 * Moves the quad, reusing its buffers.
+	 */
+	public void update(int x, int y, int w, int h, float u, float v) {
+		try (MemoryStack m = MemoryStack.stackPush()) {
+			FloatBuffer vertexBuf = makeVertices(m, x, y, w, h, u, v);
+			JFXGLContext context = shader.context;
+			if (context.isDirectStateAccess()) {
+				GL45.glNamedBufferSubData(vboId, 0, vertexBuf);
+			} else {
+				context.bindArrayBuffer(vboId);
+				GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, vertexBuf);
+				context.bindArrayBuffer(0);
+			}
 		}
-		
-		// unbind things
-		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
-		GL30.glBindVertexArray(0);
 	}
 	
 	public void render() {
 		
 		// bind stuff
+		JFXGLContext context = shader.context;
 		shader.bind();
-		GL30.glBindVertexArray(vaoId);
-		GL13.glActiveTexture(GL13.GL_TEXTURE0);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texId);
+		context.bindVertexArray(vaoId);
+		context.bindTextureUnit(0, texId);
 		
 		// draw it!
 		GL11.glDrawElements(GL11.GL_TRIANGLES, 6, GL11.GL_UNSIGNED_BYTE, 0);
 		
 		// unbind things
-		GL30.glBindVertexArray(0);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+		context.bindVertexArray(0);
+		context.bindTextureUnit(0, 0);
 	}
 	
 	public void cleanup() {
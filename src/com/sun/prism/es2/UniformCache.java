@@ -0,0 +1,180 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package com.sun.prism.es2;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * The last uniform values set on one shader program, indexed by uniform location.
+ * <p>
+ * Each setter returns true if the value changed (or was never set), ie if the GL call is actually needed.
+ * Values are compared bit-for-bit, so eg -0.0 and 0.0 count as different values, just like they would in GL.
+ */
+public class UniformCache {
+	
+	// tag each value with its type and size, so eg a vec2 never matches an ivec2 with the same bits
+	private static final int TypeFloat = 1 << 8;
+	private static final int TypeInt = 2 << 8;
+	private static final int TypeMatrix = 3 << 8;
+	private static final int TypeMatrixTranspose = 4 << 8;
+	
+	// slot[0] is the type tag (0 means unknown), the rest are the value bits
+	private int[][] slots = new int[16][];
+	
+	private int[] getSlot(int location, int size) {
+		if (location >= slots.length) {
+			slots = Arrays.copyOf(slots, Math.max(location + 1, slots.length*2));
+		}
+		int[] slot = slots[location];
+		if (slot == null || slot.length != size + 1) {
+			slot = new int[size + 1];
+			slots[location] = slot;
+		}
+		return slot;
+	}
+	
+	private boolean set(int location, int type, int size, int v0, int v1, int v2, int v3) {
+		
+		// GL ignores location -1, so we can too
+		if (location < 0) {
+			return false;
+		}
+		
+		int[] slot = getSlot(location, size);
+		type |= size;
+		if (slot[0] == type
+			&& slot[1] == v0
+			&& (size < 2 || slot[2] == v1)
+			&& (size < 3 || slot[3] == v2)
+			&& (size < 4 || slot[4] == v3)) {
+			return false;
+		}
+		
+		slot[0] = type;
+		slot[1] = v0;
+		if (size >= 2) {
+			slot[2] = v1;
+		}
+		if (size >= 3) {
+			slot[3] = v2;
+		}
+		if (size >= 4) {
+			slot[4] = v3;
+		}
+		return true;
+	}
+	
+	private static int bits(float val) {
+		return Float.floatToRawIntBits(val);
+	}
+	
+	public boolean set(int location, float v0) {
+		return set(location, TypeFloat, 1, bits(v0), 0, 0, 0);
+	}
+	
+	public boolean set(int location, float v0, float v1) {
+		return set(location, TypeFloat, 2, bits(v0), bits(v1), 0, 0);
+	}
+	
+	public boolean set(int location, float v0, float v1, float v2) {
+		return set(location, TypeFloat, 3, bits(v0), bits(v1), bits(v2), 0);
+	}
+	
+	public boolean set(int location, float v0, float v1, float v2, float v3) {
+		return set(location, TypeFloat, 4, bits(v0), bits(v1), bits(v2), bits(v3));
+	}
+	
+	public boolean set(int location, int v0) {
+		return set(location, TypeInt, 1, v0, 0, 0, 0);
+	}
+	
+	public boolean set(int location, int v0, int v1) {
+		return set(location, TypeInt, 2, v0, v1, 0, 0);
+	}
+	
+	public boolean set(int location, int v0, int v1, int v2) {
+		return set(location, TypeInt, 3, v0, v1, v2, 0);
+	}
+	
+	public boolean set(int location, int v0, int v1, int v2, int v3) {
+		return set(location, TypeInt, 4, v0, v1, v2, v3);
+	}
+	
+	/**
+	 * Compares the values between the position and the limit of the buffer.
+	 */
+	public boolean set(int location, FloatBuffer vals) {
+		
+		if (location < 0) {
+			return false;
+		}
+		
+		int pos = vals.position();
+		int size = vals.remaining();
+		int[] slot = getSlot(location, size);
+		boolean isChanged = slot[0] != TypeFloat;
+		for (int i=0; i<size; i++) {
+			int val = bits(vals.get(pos + i));
+			isChanged |= slot[i + 1] != val;
+			slot[i + 1] = val;
+		}
+		slot[0] = TypeFloat;
+		return isChanged;
+	}
+	
+	/**
+	 * Compares the values between the position and the limit of the buffer.
+	 */
+	public boolean set(int location, IntBuffer vals) {
+		
+		if (location < 0) {
+			return false;
+		}
+		
+		int pos = vals.position();
+		int size = vals.remaining();
+		int[] slot = getSlot(location, size);
+		boolean isChanged = slot[0] != TypeInt;
+		for (int i=0; i<size; i++) {
+			int val = vals.get(pos + i);
+			isChanged |= slot[i + 1] != val;
+			slot[i + 1] = val;
+		}
+		slot[0] = TypeInt;
+		return isChanged;
+	}
+	
+	public boolean setMatrix(int location, boolean transpose, float[] vals) {
+		
+		if (location < 0) {
+			return false;
+		}
+		
+		int type = transpose ? TypeMatrixTranspose : TypeMatrix;
+		int[] slot = getSlot(location, vals.length);
+		boolean isChanged = slot[0] != type;
+		for (int i=0; i<vals.length; i++) {
+			int val = bits(vals[i]);
+			isChanged |= slot[i + 1] != val;
+			slot[i + 1] = val;
+		}
+		slot[0] = type;
+		return isChanged;
+	}
+	
+	/**
+	 * Forgets all the values, eg if the program was changed without going through the cache.
+	 */
+	public void clear() {
+		Arrays.fill(slots, null);
+	}
+}
@@ -0,0 +1,243 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package cuchaz.jfxgl;
+
+/**
+ * Timings for the phases of each JFXGL frame, in nanoseconds, and a few per-frame counts.
+ * <p>
+ * Each phase accumulates time over a frame, and when the frame is done, the totals are recorded
+ * into a histogram for that phase. Nothing allocates while recording, so it's fine to leave this
+ * enabled in production.
+ * <p>
+ * Frames are delimited by {@link JFXGL#update()}, so a frame's totals (including its composite)
+ * are recorded at the start of the next frame. Phases that didn't happen during a frame aren't recorded.
+ * <p>
+ * GPU phases are measured with {@link GPUTimer}s and are off by default. They're recorded as soon as the
+ * GPU reports them, which is usually a few frames later.
+ */
+public class FrameStats {
+	
+	public static enum Phase {
+		
+		/** Posting the JavaFX pulse. The pulse itself runs on the events thread. */
+		Pulse,
+		
+		/** Running the JavaFX render jobs on the main thread. */
+		Jobs,
+		
+		/** Waiting for the events thread to send render jobs. This time overlaps the Jobs phase. */
+		PacingWait,
+		
+		/**
+		 * From posting a pulse until the events thread finished sending its render jobs.
+		 * Recorded once per pulse, rather than per frame.
+		 */
+		PulseLatency,
+		
+		/** Waiting for the JavaFX context rendering to sync with the app context. */
+		SyncWait,
+		
+		/** Switching between OpenGL contexts. This time overlaps the other phases. */
+		ContextSwitch,
+		
+		/** Compositing the main window framebuffer. */
+		MainComposite,
+		
+		/** Compositing the popup window framebuffers. */
+		PopupComposite,
+		
+		/** Everything JFXGL did on the main thread this frame. */
+		Total,
+		
+		/** GPU time for the JavaFX render jobs. */
+		GPUJobs,
+		
+		/** GPU time for compositing the main window framebuffer. */
+		GPUMainComposite,
+		
+		/** GPU time for compositing each popup window framebuffer, one sample per popup. */
+		GPUPopupComposite,
+		
+		/** GPU time for each call to an {@link cuchaz.jfxgl.controls.OpenGLPane} renderer. */
+		GPUPane,
+		
+		/** How many uniform values were sent to GL. A count, not a time. */
+		UniformsIssued,
+		
+		/** How many uniform values were skipped, because the program already had them. A count, not a time. */
+		UniformsSkipped;
+	}
+	
+	public static interface Listener {
+		
+		/**
+		 * Called on the main thread after each frame's timings are recorded.
+		 * Use {@link FrameStats#getLastFrame(Phase)} to get the latest timings for each phase.
+		 */
+		@CalledByMainThread
+		void onFrame(FrameStats stats);
+	}
+	
+	// NOTE: values() makes a new array every time, so cache it
+	private static final Phase[] Phases = Phase.values();
+	
+	public boolean enabled = true;
+	
+	/** Also measure GPU phases, if the driver supports timer queries. */
+	public boolean gpuEnabled = false;
+	
+	private final Histogram[] histograms;
+	private final long[] starts;
+	private final long[] current;
+	private final boolean[] isTouched;
+	private final long[] last;
+	private long numFrames;
+	private boolean inFrame;
+	private Listener listener;
+	
+	public FrameStats() {
+		histograms = new Histogram[Phases.length];
+		for (int i=0; i<Phases.length; i++) {
+			histograms[i] = new Histogram();
+		}
+		starts = new long[Phases.length];
+		current = new long[Phases.length];
+		isTouched = new boolean[Phases.length];
+		last = new long[Phases.length];
+		reset();
+	}
+	
+	public void setListener(Listener val) {
+		listener = val;
+	}
+	
+	public Listener getListener() {
+		return listener;
+	}
+	
+	@CalledByMainThread
+	public void begin(Phase phase) {
+		if (enabled) {
+			starts[phase.ordinal()] = System.nanoTime();
+		}
+	}
+	
+	@CalledByMainThread
+	public void end(Phase phase) {
+		if (enabled) {
+			int i = phase.ordinal();
+			current[i] += System.nanoTime() - starts[i];
+			isTouched[i] = true;
+		}
+	}
+	
+	/**
+	 * Adds to the phase's total for the current frame, eg for counts rather than times.
+	 */
+	@CalledByMainThread
+	public void add(Phase phase, long amount) {
+		if (enabled) {
+			int i = phase.ordinal();
+			current[i] += amount;
+			isTouched[i] = true;
+		}
+	}
+	
+	/**
+	 * Records one sample for the phase directly, rather than accumulating it into the current frame.
+	 */
+	@CalledByMainThread
+	public void record(Phase phase, long ns) {
+		if (enabled) {
+			int i = phase.ordinal();
+			histograms[i].record(ns);
+			last[i] = ns;
+		}
+	}
+	
+	/**
+	 * Finishes the previous frame (if any) and starts a new one.
+	 */
+	@CalledByMainThread
+	public void nextFrame() {
+		
+		if (!enabled) {
+			inFrame = false;
+			return;
+		}
+		
+		if (inFrame) {
+			for (int i=0; i<Phases.length; i++) {
+				if (isTouched[i]) {
+					histograms[i].record(current[i]);
+					last[i] = current[i];
+					current[i] = 0;
+					isTouched[i] = false;
+				}
+			}
+			numFrames++;
+			
+			if (listener != null) {
+				listener.onFrame(this);
+			}
+			
+		} else {
+			
+			// drop anything recorded between frames
+			for (int i=0; i<Phases.length; i++) {
+				current[i] = 0;
+				isTouched[i] = false;
+			}
+		}
+		
+		inFrame = true;
+	}
+	
+	@CalledByMainThread
+	public void reset() {
+		for (int i=0; i<Phases.length; i++) {
+			histograms[i].reset();
+			current[i] = 0;
+			isTouched[i] = false;
+			last[i] = 0;
+		}
+		numFrames = 0;
+		inFrame = false;
+	}
+	
+	public long getNumFrames() {
+		return numFrames;
+	}
+	
+	/**
+	 * Returns the histogram of per-frame times for the phase.
+	 * Only read it on the main thread, or it could change while you're reading it.
+	 */
+	public Histogram get(Phase phase) {
+		return histograms[phase.ordinal()];
+	}
+	
+	/**
+	 * Returns the time spent in the phase during the last frame it was recorded.
+	 */
+	public long getLastFrame(Phase phase) {
+		return last[phase.ordinal()];
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder buf = new StringBuilder();
+		buf.append(String.format("%d frames (ns):", numFrames));
+		for (Phase phase : Phases) {
+			buf.append(String.format("\n\t%-15s %s", phase, get(phase)));
+		}
+		return buf.toString();
+	}
+}
@@ -0,0 +1,312 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package cuchaz.jfxgl;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.system.MemoryStack;
+
+/**
+ * A copy of the GL state a context has set, so JFXGL doesn't have to ask the driver for it.
+ * <p>
+ * Queries like glGetInteger make multithreaded drivers wait for all the queued commands,
+ * so the shadow only asks GL the first time it needs a value, and remembers everything that gets set after that.
+ * When other code might have changed the state (eg the app, or an {@link cuchaz.jfxgl.controls.OpenGLPane}),
+ * the context forgets the whole shadow, see {@link com.sun.prism.es2.JFXGLContext#invalidateState()}.
+ * <p>
+ * Only use the shadow of the current context.
+ */
+public class GLShadow {
+	
+	/**
+	 * If true, every value read from the shadow gets checked against the real GL state.
+	 * That's even slower than not having a shadow at all, so only use it for debugging.
+	 */
+	public static boolean checkEnabled = false;
+	
+	public static final int Program = 0;
+	public static final int DrawFramebuffer = 1;
+	public static final int ReadFramebuffer = 2;
+	public static final int ActiveTexture = 3;
+	public static final int VertexArray = 4;
+	public static final int ArrayBuffer = 5;
+	public static final int ElementArrayBuffer = 6;
+	public static final int Blend = 7;
+	public static final int BlendSrc = 8;
+	public static final int BlendDst = 9;
+	public static final int ScissorTest = 10;
+	public static final int DepthTest = 11;
+	public static final int DepthFunc = 12;
+	public static final int DepthMask = 13;
+	public static final int Multisample = 14;
+	public static final int UnpackAlignment = 15;
+	public static final int UnpackRowLength = 16;
+	public static final int UnpackSkipPixels = 17;
+	public static final int UnpackSkipRows = 18;
+	
+	/** x, y, w, h */
+	public static final int ScissorBox = 19;
+	
+	/** x, y, w, h */
+	public static final int Viewport = 23;
+	
+	/** r, g, b, a, as float bits */
+	public static final int ClearColor = 27;
+	
+	/** one texture binding per unit */
+	public static final int Texture2D = 31;
+	
+	public static final int NumTextureUnits = 32;
+	
+	private static final int NumSlots = Texture2D + NumTextureUnits;
+	
+	private final int[] vals = new int[NumSlots];
+	private final boolean[] isKnown = new boolean[NumSlots];
+	
+	/**
+	 * Returns the slot for the texture binding of the unit, or -1 if the unit isn't shadowed.
+	 */
+	public static int getTextureSlot(int unit) {
+		if (unit < 0 || unit >= NumTextureUnits) {
+			return -1;
+		}
+		return Texture2D + unit;
+	}
+	
+	/**
+	 * Returns the value in the slot, asking GL only if the shadow doesn't know it yet.
+	 */
+	public int get(int slot) {
+		if (!isKnown[slot]) {
+			vals[slot] = query(slot);
+			isKnown[slot] = true;
+		} else if (checkEnabled) {
+			check(slot);
+		}
+		return vals[slot];
+	}
+	
+	public boolean getBoolean(int slot) {
+		return get(slot) != 0;
+	}
+	
+	public float getFloat(int slot) {
+		return Float.intBitsToFloat(get(slot));
+	}
+	
+	/**
+	 * Returns true if the shadow knows the slot has the value, without ever asking GL.
+	 */
+	public boolean has(int slot, int val) {
+		if (!isKnown[slot] || vals[slot] != val) {
+			return false;
+		}
+		if (checkEnabled) {
+			check(slot);
+		}
+		return true;
+	}
+	
+	public boolean has(int slot, float val) {
+		return has(slot, Float.floatToRawIntBits(val));
+	}
+	
+	/**
+	 * Remembers the value, if it's not already there.
+	 *
+	 * @return true if the value changed (or wasn't known), ie if the GL call is actually needed
+	 */
+	public boolean set(int slot, int val) {
+		if (isKnown[slot] && vals[slot] == val) {
+			if (checkEnabled) {
+				check(slot);
+			}
+			return false;
+		}
+		vals[slot] = val;
+		isKnown[slot] = true;
+		return true;
+	}
+	
+	public boolean set(int slot, boolean val) {
+		return set(slot, val ? 1 : 0);
+	}
+	
+	public boolean set(int slot, float val) {
+		return set(slot, Float.floatToRawIntBits(val));
+	}
+	
+	/**
+	 * Forgets the value, eg after calling something that changes the state as a side effect.
+	 */
+	public void forget(int slot) {
+		isKnown[slot] = false;
+	}
+	
+	/**
+	 * Forgets everything, eg after other code had a turn with the context.
+	 */
+	public void invalidate() {
+		Arrays.fill(isKnown, false);
+	}
+	
+	/**
+	 * GL resets bindings to deleted objects to 0, so the shadow has to too.
+	 */
+	public void onDeleted(int firstSlot, int numSlots, int id) {
+		for (int slot=firstSlot; slot<firstSlot + numSlots; slot++) {
+			if (isKnown[slot] && vals[slot] == id) {
+				vals[slot] = 0;
+			}
+		}
+	}
+	
+	/**
+	 * Checks every known value against the real GL state.
+	 */
+	public void checkAll() {
+		for (int slot=0; slot<NumSlots; slot++) {
+			if (isKnown[slot]) {
+				check(slot);
+			}
+		}
+	}
+	
+	private void check(int slot) {
+		int glVal = query(slot);
+		if (glVal != vals[slot]) {
+			throw new IllegalStateException(String.format("GL state shadow is wrong for %s: shadow has %d, but GL has %d",
+				getName(slot), vals[slot], glVal
+			));
+		}
+	}
+	
+	public static String getName(int slot) {
+		if (slot >= Texture2D) {
+			return "Texture2D[" + (slot - Texture2D) + "]";
+		} else if (slot >= ClearColor) {
+			return "ClearColor[" + (slot - ClearColor) + "]";
+		} else if (slot >= Viewport) {
+			return "Viewport[" + (slot - Viewport) + "]";
+		} else if (slot >= ScissorBox) {
+			return "ScissorBox[" + (slot - ScissorBox) + "]";
+		}
+		switch (slot) {
+			case Program: return "Program";
+			case DrawFramebuffer: return "DrawFramebuffer";
+			case ReadFramebuffer: return "ReadFramebuffer";
+			case ActiveTexture: return "ActiveTexture";
+			case VertexArray: return "VertexArray";
+			case ArrayBuffer: return "ArrayBuffer";
+			case ElementArrayBuffer: return "ElementArrayBuffer";
+			case Blend: return "Blend";
+			case BlendSrc: return "BlendSrc";
+			case BlendDst: return "BlendDst";
+			case ScissorTest: return "ScissorTest";
+			case DepthTest: return "DepthTest";
+			case DepthFunc: return "DepthFunc";
+			case DepthMask: return "DepthMask";
+			case Multisample: return "Multisample";
+			case UnpackAlignment: return "UnpackAlignment";
+			case UnpackRowLength: return "UnpackRowLength";
+			case UnpackSkipPixels: return "UnpackSkipPixels";
+			case UnpackSkipRows: return "UnpackSkipRows";
+			default: throw new IllegalArgumentException("unknown slot: " + slot);
+		}
+	}
+	
+	/**
+	 * Asks GL for the value of the slot, in the current context.
+	 */
+	public static int query(int slot) {
+		
+		if (slot >= Texture2D) {
+			int activeTexture = GL11.glGetInteger(GL13.GL_ACTIVE_TEXTURE);
+			GL13.glActiveTexture(GL13.GL_TEXTURE0 + slot - Texture2D);
+			int val = GL11.glGetInteger(GL11.GL_TEXTURE_BINDING_2D);
+			GL13.glActiveTexture(activeTexture);
+			return val;
+		} else if (slot >= ClearColor) {
+			try (MemoryStack m = MemoryStack.stackPush()) {
+				FloatBuffer buf = m.mallocFloat(4);
+				GL11.glGetFloatv(GL11.GL_COLOR_CLEAR_VALUE, buf);
+				return Float.floatToRawIntBits(buf.get(slot - ClearColor));
+			}
+		} else if (slot >= Viewport) {
+			return queryInt4(GL11.GL_VIEWPORT, slot - Viewport);
+		} else if (slot >= ScissorBox) {
+			return queryInt4(GL11.GL_SCISSOR_BOX, slot - ScissorBox);
+		}
+		
+		switch (slot) {
+			case Program: return GL11.glGetInteger(GL20.GL_CURRENT_PROGRAM);
+			case DrawFramebuffer: return GL11.glGetInteger(GL30.GL_DRAW_FRAMEBUFFER_BINDING);
+			case ReadFramebuffer: return GL11.glGetInteger(GL30.GL_READ_FRAMEBUFFER_BINDING);
+			case ActiveTexture: return GL11.glGetInteger(GL13.GL_ACTIVE_TEXTURE);
+			case VertexArray: return GL11.glGetInteger(GL30.GL_VERTEX_ARRAY_BINDING);
+			case ArrayBuffer: return GL11.glGetInteger(GL15.GL_ARRAY_BUFFER_BINDING);
+			case ElementArrayBuffer: return GL11.glGetInteger(GL15.GL_ELEMENT_ARRAY_BUFFER_BINDING);
+			case Blend: return GL11.glIsEnabled(GL11.GL_BLEND) ? 1 : 0;
+			case BlendSrc: return GL11.glGetInteger(GL11.GL_BLEND_SRC);
+			case BlendDst: return GL11.glGetInteger(GL11.GL_BLEND_DST);
+			case ScissorTest: return GL11.glIsEnabled(GL11.GL_SCISSOR_TEST) ? 1 : 0;
+			case DepthTest: return GL11.glIsEnabled(GL11.GL_DEPTH_TEST) ? 1 : 0;
+			case DepthFunc: return GL11.glGetInteger(GL11.GL_DEPTH_FUNC);
+			case DepthMask: return GL11.glGetInteger(GL11.GL_DEPTH_WRITEMASK) == GL11.GL_TRUE ? 1 : 0;
+			case Multisample: return GL11.glIsEnabled(GL13.GL_MULTISAMPLE) ? 1 : 0;
+			case UnpackAlignment: return GL11.glGetInteger(GL11.GL_UNPACK_ALIGNMENT);
+			case UnpackRowLength: return GL11.glGetInteger(GL11.GL_UNPACK_ROW_LENGTH);
+			case UnpackSkipPixels: return GL11.glGetInteger(GL11.GL_UNPACK_SKIP_PIXELS);
+			case UnpackSkipRows: return GL11.glGetInteger(GL11.GL_UNPACK_SKIP_ROWS);
+			default: throw new IllegalArgumentException("unknown slot: " + slot);
+		}
+	}
+	
+	private static int queryInt4(int pname, int index) {
+		try (MemoryStack m = MemoryStack.stackPush()) {
+			IntBuffer buf = m.mallocInt(4);
+			GL11.glGetIntegerv(pname, buf);
+			return buf.get(index);
+		}
+	}
+	
+	/**
+	 * Returns the shadow slot for a glEnable capability, or -1 if it isn't shadowed.
+	 */
+	public static int getCapabilitySlot(int cap) {
+		switch (cap) {
+			case GL11.GL_BLEND: return Blend;
+			case GL11.GL_SCISSOR_TEST: return ScissorTest;
+			case GL11.GL_DEPTH_TEST: return DepthTest;
+			case GL13.GL_MULTISAMPLE: return Multisample;
+			default: return -1;
+		}
+	}
+	
+	/**
+	 * Returns the shadow slot for a pixel store parameter, or -1 if it isn't shadowed.
+	 */
+	public static int getPixelStoreSlot(int pname) {
+		switch (pname) {
+			case GL11.GL_UNPACK_ALIGNMENT: return UnpackAlignment;
+			case GL11.GL_UNPACK_ROW_LENGTH: return UnpackRowLength;
+			case GL11.GL_UNPACK_SKIP_PIXELS: return UnpackSkipPixels;
+			case GL11.GL_UNPACK_SKIP_ROWS: return UnpackSkipRows;
+			default: return -1;
+		}
+	}
+}
@@ -9,41 +9,57 @@
  *************************************************************************/
 package cuchaz.jfxgl;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
-import java.util.Arrays;
-import java.util.List;
 
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL13;
 import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL21;
 import org.lwjgl.opengl.GL30;
 import org.lwjgl.system.MemoryStack;
 
 public class GLState {
 	
-	public static final Part.Flag Blend = new Part.Flag(GL11.GL_BLEND);
-	public static final Part.Flag ScissorTest = new Part.Flag(GL11.GL_SCISSOR_TEST);
+	public static final Part.Flag Blend = new Part.Flag(GL11.GL_BLEND, GLShadow.Blend);
+	public static final Part.Flag ScissorTest = new Part.Flag(GL11.GL_SCISSOR_TEST, GLShadow.ScissorTest);
+	public static final Part.Flag DepthTest = new Part.Flag(GL11.GL_DEPTH_TEST, GLShadow.DepthTest);
+	public static final Part.Flag Multisample = new Part.Flag(GL13.GL_MULTISAMPLE, GLShadow.Multisample);
+	public static final Part.Flag CullFace = new Part.Flag(GL11.GL_CULL_FACE);
+	public static final Part.Flag StencilTest = new Part.Flag(GL11.GL_STENCIL_TEST);
+	public static final Part.Flag FramebufferSRGB = new Part.Flag(GL30.GL_FRAMEBUFFER_SRGB);
 	
-	public static final Part BlendFunc = new Part(
-		Integer.BYTES*2,
-		(out) -> {
-			out.writeInt(GL11.glGetInteger(GL11.GL_BLEND_SRC));
-			out.writeInt(GL11.glGetInteger(GL11.GL_BLEND_DST));
-		},
-		(in) -> {
-			GL11.glBlendFunc(in.readInt(), in.readInt());
+	public static final Part BlendFunc = new Part(2, 0, new int[] { GLShadow.BlendSrc, GLShadow.BlendDst }) {
+		
+		@Override
+		protected void backup(int[] ints, int i, float[] floats, int f) {
+			ints[i] = GL11.glGetInteger(GL11.GL_BLEND_SRC);
+			ints[i + 1] = GL11.glGetInteger(GL11.GL_BLEND_DST);
 		}
-	);
+		
+		@Override
+		protected void restore(int[] ints, int i, float[] floats, int f) {
+			GL11.glBlendFunc(ints[i], ints[i + 1]);
+		}
+	};
+	
+	public static final Part BlendEquation = new Part(2, 0, null) {
+		
+		@Override
+		protected void backup(int[] ints, int i, float[] floats, int f) {
+			ints[i] = GL11.glGetInteger(GL20.GL_BLEND_EQUATION_RGB);
+			ints[i + 1] = GL11.glGetInteger(GL20.GL_BLEND_EQUATION_ALPHA);
+		}
+		
+		@Override
+		protected void restore(int[] ints, int i, float[] floats, int f) {
+			GL20.glBlendEquationSeparate(ints[i], ints[i + 1]);
+		}
+	};
 	
 	public static final Part.IntVal ShaderProgram = new Part.IntVal(
+		GLShadow.Program,
 		() -> {
 			return GL11.glGetInteger(GL20.GL_CURRENT_PROGRAM);
 		},
@@ -54,17 +70,29 @@ public class GLState {
 	
 	protected static class Texture2D extends Part.IntVal {
 		
+		private final int index;
+		
 		public Texture2D(int index) {
 			super(
+				GLShadow.getTextureSlot(index),
 				() -> {
 					GL13.glActiveTexture(GL13.GL_TEXTURE0 + index);
-					return GL11.glGetInteger(GL11.GL_TEXTURE_2D);
+					return GL11.glGetInteger(GL11.GL_TEXTURE_BINDING_2D);
 				},
 				(int val) -> {
 					GL13.glActiveTexture(GL13.GL_TEXTURE0 + index);
 					GL11.glBindTexture(GL11.GL_TEXTURE_2D, val);
 				}
 			);
+			this.index = index;
+		}
+		
+		@Override
+		protected void restore(GLShadow shadow, int[] ints, int i, float[] floats, int f) {
+			super.restore(shadow, ints, i, floats, f);
+			
+			// restoring the binding changed the active texture too
+			shadow.set(GLShadow.ActiveTexture, GL13.GL_TEXTURE0 + index);
 		}
 	}
 	
@@ -105,6 +133,7 @@ public class GLState {
 	};
 	
 	public static final Part.IntVal ActiveTexture = new Part.IntVal(
+		GLShadow.ActiveTexture,
 		() -> {
 			return GL11.glGetInteger(GL13.GL_ACTIVE_TEXTURE);
 		},
@@ -114,15 +143,26 @@ public class GLState {
 	);
 	
 	public static final Part.IntVal VertexArray = new Part.IntVal(
+		GLShadow.VertexArray,
 		() -> {
 			return GL11.glGetInteger(GL30.GL_VERTEX_ARRAY_BINDING);
 		},
 		(int val) -> {
 			GL30.glBindVertexArray(val);
 		}
-	);
+	) {
+		
+		@Override
+		protected void restore(GLShadow shadow, int[] ints, int i, float[] floats, int f) {
+			super.restore(shadow, ints, i, floats, f);
+			
+			// the index buffer binding belongs to the vertex array
+			shadow.forget(GLShadow.ElementArrayBuffer);
+		}
+	};
 	
 	public static final Part.IntVal ArrayBuffer = new Part.IntVal(
+		GLShadow.ArrayBuffer,
 		() -> {
 			return GL11.glGetInteger(GL15.GL_ARRAY_BUFFER_BINDING);
 		},
@@ -132,6 +172,7 @@ public class GLState {
 	);
 	
 	public static final Part.IntVal ElementArrayBuffer = new Part.IntVal(
+		GLShadow.ElementArrayBuffer,
 		() -> {
 			return GL11.glGetInteger(GL15.GL_ELEMENT_ARRAY_BUFFER_BINDING);
 		},
@@ -140,7 +181,67 @@ public class GLState {
 		}
 	);
 	
+	public static final Part.IntVal PixelUnpackBuffer = new Part.IntVal(
+		() -> {
+			return GL11.glGetInteger(GL21.GL_PIXEL_UNPACK_BUFFER_BINDING);
+		},
+		(int val) -> {
+			GL15.glBindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, val);
+		}
+	);
+	
+	public static final Part.IntVal DrawFramebuffer = new Part.IntVal(
+		GLShadow.DrawFramebuffer,
+		() -> {
+			return GL11.glGetInteger(GL30.GL_DRAW_FRAMEBUFFER_BINDING);
+		},
+		(int val) -> {
+			GL30.glBindFramebuffer(GL30.GL_DRAW_FRAMEBUFFER, val);
+		}
+	);
+	
+	public static final Part.IntVal ReadFramebuffer = new Part.IntVal(
+		GLShadow.ReadFramebuffer,
+		() -> {
+			return GL11.glGetInteger(GL30.GL_READ_FRAMEBUFFER_BINDING);
+		},
+		(int val) -> {
+			GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, val);
+		}
+	);
+	
+	public static final Part.IntVal DepthFunc = new Part.IntVal(
+		GLShadow.DepthFunc,
+		() -> {
+			return GL11.glGetInteger(GL11.GL_DEPTH_FUNC);
+		},
+		(int val) -> {
+			GL11.glDepthFunc(val);
+		}
+	);
+	
+	protected static class PixelStore extends Part.IntVal {
+		
+		public PixelStore(int name) {
+			super(
+				GLShadow.getPixelStoreSlot(name),
+				() -> {
+					return GL11.glGetInteger(name);
+				},
+				(int val) -> {
+					GL11.glPixelStorei(name, val);
+				}
+			);
+		}
+	}
+	
+	public static final Part.IntVal UnpackAlignment = new PixelStore(GL11.GL_UNPACK_ALIGNMENT);
+	public static final Part.IntVal UnpackRowLength = new PixelStore(GL11.GL_UNPACK_ROW_LENGTH);
+	public static final Part.IntVal UnpackSkipPixels = new PixelStore(GL11.GL_UNPACK_SKIP_PIXELS);
+	public static final Part.IntVal UnpackSkipRows = new PixelStore(GL11.GL_UNPACK_SKIP_ROWS);
+	
 	public static final Part.BoolVal DepthMask = new Part.BoolVal(
+		GLShadow.DepthMask,
 		() -> {
 			return GL11.glGetInteger(GL11.GL_DEPTH_WRITEMASK) == GL11.GL_TRUE;
 		},
@@ -149,7 +250,27 @@ public class GLState {
 		}
 	);
 	
+	public static final Part ColorMask = new Part.Int4Val(
+		(buf) -> {
+			GL11.glGetIntegerv(GL11.GL_COLOR_WRITEMASK, buf);
+		},
+		(r, g, b, a) -> {
+			GL11.glColorMask(r != 0, g != 0, b != 0, a != 0);
+		}
+	);
+	
+	/** Core profiles only have one mode for both front and back faces, so this only saves the front mode. */
+	public static final Part PolygonMode = new Part.Int4Val(
+		(buf) -> {
+			GL11.glGetIntegerv(GL11.GL_POLYGON_MODE, buf);
+		},
+		(front, back, c, d) -> {
+			GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, front);
+		}
+	);
+	
 	public static final Part ClearColor = new Part.Float4Val(
+		GLShadow.ClearColor,
 		(buf) -> {
 			GL11.glGetFloatv(GL11.GL_COLOR_CLEAR_VALUE, buf);
 		},
@@ -159,6 +280,7 @@ public class GLState {
 	);
 	
 	public static final Part Viewport = new Part.Int4Val(
+		GLShadow.Viewport,
 		(buf) -> {
 			GL11.glGetIntegerv(GL11.GL_VIEWPORT, buf);
 		},
@@ -167,25 +289,94 @@ public class GLState {
 		}
 	);
 	
+	public static final Part ScissorBox = new Part.Int4Val(
+		GLShadow.ScissorBox,
+		(buf) -> {
+			GL11.glGetIntegerv(GL11.GL_SCISSOR_BOX, buf);
+		},
+		(x, y, w, h) -> {
+			GL11.glScissor(x, y, w, h);
+		}
+	);
+	
 
-	public static class Part {
+	/**
+	 * One piece of GL state, stored in a few int or float slots of the {@link GLState}.
+	 */
+	public static abstract class Part {
+		
+		public final int numInts;
+		public final int numFloats;
+		
+		/** the slots of this part in a {@link GLShadow}, one per int or float, or null if the part isn't shadowed */
+		public final int[] slots;
 		
-		public static interface Backuper {
-			void backup(DataOutputStream out) throws IOException;
+		protected Part(int numInts, int numFloats, int[] slots) {
+			this.numInts = numInts;
+			this.numFloats = numFloats;
+			this.slots = slots;
 		}
 		
-		public static interface Restorer {
-			void restore(DataInputStream in) throws IOException;
+		private static int[] makeSlots(int firstSlot, int numSlots) {
+			if (firstSlot < 0) {
+				return null;
+			}
+			int[] slots = new int[numSlots];
+			for (int i=0; i<numSlots; i++) {
+				slots[i] = firstSlot + i;
+			}
+			return slots;
 		}
 		
-		public final int size;
-		public final Backuper backuper;
-		public final Restorer restorer;
+		/**
+		 * Reads the state from GL into ints starting at i, and floats starting at f.
+		 */
+		protected abstract void backup(int[] ints, int i, float[] floats, int f);
 		
-		protected Part(int size, Backuper backuper, Restorer restorer) {
-			this.size = size;
-			this.backuper = backuper;
-			this.restorer = restorer;
+		/**
+		 * Sends the state in ints starting at i, and floats starting at f, back to GL.
+		 */
+		protected abstract void restore(int[] ints, int i, float[] floats, int f);
+		
+		/**
+		 * Reads the state from the shadow instead of GL.
+		 */
+		protected void backup(GLShadow shadow, int[] ints, int i, float[] floats, int f) {
+			for (int j=0; j<numInts; j++) {
+				ints[i + j] = shadow.get(slots[j]);
+			}
+			for (int j=0; j<numFloats; j++) {
+				floats[f + j] = shadow.getFloat(slots[numInts + j]);
+			}
+		}
+		
+		/**
+		 * Returns true if the shadow knows GL still has the saved state, ie restoring it would change nothing.
+		 */
+		protected boolean isCurrent(GLShadow shadow, int[] ints, int i, float[] floats, int f) {
+			for (int j=0; j<numInts; j++) {
+				if (!shadow.has(slots[j], ints[i + j])) {
+					return false;
+				}
+			}
+			for (int j=0; j<numFloats; j++) {
+				if (!shadow.has(slots[numInts + j], floats[f + j])) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Remembers the restored state in the shadow.
+		 */
+		protected void restore(GLShadow shadow, int[] ints, int i, float[] floats, int f) {
+			for (int j=0; j<numInts; j++) {
+				shadow.set(slots[j], ints[i + j]);
+			}
+			for (int j=0; j<numFloats; j++) {
+				shadow.set(slots[numInts + j], floats[f + j]);
+			}
 		}
 		
 		public static class IntVal extends Part {
@@ -202,15 +393,11 @@ public class GLState {
 			private final Setter setter;
 			
 			public IntVal(Getter getter, Setter setter) {
-				super(
-					Integer.BYTES,
-					(out) -> {
-						out.writeInt(getter.get());
-					},
-					(in) -> {
-						setter.set(in.readInt());
-					}
-				);
+				this(-1, getter, setter);
+			}
+			
+			public IntVal(int slot, Getter getter, Setter setter) {
+				super(1, 0, makeSlots(slot, 1));
 				this.getter = getter;
 				this.setter = setter;
 			}
@@ -222,6 +409,16 @@ public class GLState {
 			public void set(int val) {
 				setter.set(val);
 			}
+			
+			@Override
+			protected void backup(int[] ints, int i, float[] floats, int f) {
+				ints[i] = getter.get();
+			}
+			
+			@Override
+			protected void restore(int[] ints, int i, float[] floats, int f) {
+				setter.set(ints[i]);
+			}
 		}
 		
 		public static class BoolVal extends Part {
@@ -238,15 +435,12 @@ public class GLState {
 			private final Setter setter;
 			
 			public BoolVal(Getter getter, Setter setter) {
-				super(
-					1,
-					(out) -> {
-						out.writeBoolean(getter.get());
-					},
-					(in) -> {
-						setter.set(in.readBoolean());
-					}
-				);
+				this(-1, getter, setter);
+			}
+			
+			public BoolVal(int slot, Getter getter, Setter setter) {
+				// NOTE: store booleans as 0 or 1, same as the shadow
+				super(1, 0, makeSlots(slot, 1));
 				this.getter = getter;
 				this.setter = setter;
 			}
@@ -258,12 +452,27 @@ public class GLState {
 			public void setter(boolean val) {
 				setter.set(val);
 			}
+			
+			@Override
+			protected void backup(int[] ints, int i, float[] floats, int f) {
+				ints[i] = getter.get() ? 1 : 0;
+			}
+			
+			@Override
+			protected void restore(int[] ints, int i, float[] floats, int f) {
+				setter.set(ints[i] != 0);
+			}
 		}
 		
 		public static class Flag extends BoolVal {
 			
 			public Flag(int flag) {
+				this(flag, -1);
+			}
+			
+			public Flag(int flag, int slot) {
 				super(
+					slot,
 					() -> {
 						return GL11.glIsEnabled(flag);
 					},
@@ -288,23 +497,31 @@ public class GLState {
 				void set(int a, int b, int c, int d);
 			}
 			
+			private final Getter getter;
+			private final Setter setter;
+			
 			public Int4Val(Getter getter, Setter setter) {
-				super(
-					Integer.BYTES*4,
-					(out) -> {
-						try (MemoryStack m = MemoryStack.stackPush()) {
-							IntBuffer buf = m.ints(0, 0, 0, 0);
-							getter.get(buf);
-							out.writeInt(buf.get(0));
-							out.writeInt(buf.get(1));
-							out.writeInt(buf.get(2));
-							out.writeInt(buf.get(3));
-						}
-					},
-					(in) -> {
-						setter.set(in.readInt(), in.readInt(), in.readInt(), in.readInt());
-					}
-				);
+				this(-1, getter, setter);
+			}
+			
+			public Int4Val(int firstSlot, Getter getter, Setter setter) {
+				super(4, 0, makeSlots(firstSlot, 4));
+				this.getter = getter;
+				this.setter = setter;
+			}
+			
+			@Override
+			protected void backup(int[] ints, int i, float[] floats, int f) {
+				try (MemoryStack m = MemoryStack.stackPush()) {
+					IntBuffer buf = m.mallocInt(4);
+					getter.get(buf);
+					buf.get(ints, i, 4);
+				}
+			}
+			
+			@Override
+			protected void restore(int[] ints, int i, float[] floats, int f) {
+				setter.set(ints[i], ints[i + 1], ints[i + 2], ints[i + 3]);
 			}
 		}
 		
@@ -318,89 +535,122 @@ public class GLState {
 				void set(float a, float b, float c, float d);
 			}
 			
+			private final Getter getter;
+			private final Setter setter;
+			
 			public Float4Val(Getter getter, Setter setter) {
-				super(
-					Float.BYTES*4,
-					(out) -> {
-						try (MemoryStack m = MemoryStack.stackPush()) {
-							FloatBuffer buf = m.floats(0, 0, 0, 0);
-							getter.get(buf);
-							out.writeFloat(buf.get(0));
-							out.writeFloat(buf.get(1));
-							out.writeFloat(buf.get(2));
-							out.writeFloat(buf.get(3));
-						}
-					},
-					(in) -> {
-						setter.set(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
-					}
-				);
+				this(-1, getter, setter);
+			}
+			
+			public Float4Val(int firstSlot, Getter getter, Setter setter) {
+				super(0, 4, makeSlots(firstSlot, 4));
+				this.getter = getter;
+				this.setter = setter;
+			}
+			
+			@Override
+			protected void backup(int[] ints, int i, float[] floats, int f) {
+				try (MemoryStack m = MemoryStack.stackPush()) {
+					FloatBuffer buf = m.mallocFloat(4);
+					getter.get(buf);
+					buf.get(floats, f, 4);
+				}
+			}
+			
+			@Override
+			protected void restore(int[] ints, int i, float[] floats, int f) {
+				setter.set(floats[f], floats[f + 1], floats[f + 2], floats[f + 3]);
 			}
 		}
 	}
 	
-	private List<Part> parts;
-	private ByteBuffer buf;
+	private final Part[] parts;
+	
+	// where each part keeps its values, laid out once so backup and restore never allocate
+	private final int[] intOffsets;
+	private final int[] floatOffsets;
+	private final int[] ints;
+	private final float[] floats;
+	
+	private int numSkipped = 0;
 	
 	public GLState(Part ... parts) {
-		this.parts = Arrays.asList(parts);
 		
-		int size = 0;
-		for (Part part : this.parts) {
-			size += part.size;
+		this.parts = parts.clone();
+		
+		intOffsets = new int[parts.length];
+		floatOffsets = new int[parts.length];
+		int numInts = 0;
+		int numFloats = 0;
+		for (int i=0; i<parts.length; i++) {
+			intOffsets[i] = numInts;
+			floatOffsets[i] = numFloats;
+			numInts += parts[i].numInts;
+			numFloats += parts[i].numFloats;
 		}
-		this.buf = ByteBuffer.allocate(size);
+		ints = new int[numInts];
+		floats = new float[numFloats];
 	}
 	
 	public void backup() {
+		backup(null);
+	}
+	
+	/**
+	 * Saves the state, reading shadowed parts from the shadow instead of asking GL.
+	 *
+	 * @param shadow the shadow of the current context, or null to ask GL for everything
+	 */
+	public void backup(GLShadow shadow) {
 		
-		OutputStream out = new OutputStream() {
-
-			@Override
-			public void write(int b)
-			throws IOException {
-				buf.put((byte)(b & 0xff));
-			}
-		};
-		
-		try (DataOutputStream dout = new DataOutputStream(out)) {
-			buf.clear();
-			
-			// iterate in forward order for backup
-			for (int i=0; i<parts.size(); i++) {
-				parts.get(i).backuper.backup(dout);
+		// iterate in forward order for backup
+		for (int i=0; i<parts.length; i++) {
+			Part part = parts[i];
+			if (shadow != null && part.slots != null) {
+				part.backup(shadow, ints, intOffsets[i], floats, floatOffsets[i]);
+			} else {
+				part.backup(ints, intOffsets[i], floats, floatOffsets[i]);
 			}
-			
-			buf.flip();
-		} catch (IOException ex) {
-			throw new RuntimeException(ex);
 		}
 	}
 	
 	public void restore() {
+		restore(null);
+	}
+	
+	/**
+	 * Puts back the saved state, and remembers the shadowed parts in the shadow.
+	 * <p>
+	 * Shadowed parts the shadow knows weren't changed since the backup don't get sent to GL at all,
+	 * so code between backup and restore should change state through the context (or forget it in the shadow),
+	 * rather than calling GL directly.
+	 *
+	 * @param shadow the shadow of the current context, or null to restore every part
+	 */
+	public void restore(GLShadow shadow) {
 		
-		InputStream in = new InputStream() {
-
-			@Override
-			public int read()
-			throws IOException {
-				return buf.get() & 0xff;
-			}
-		};
+		numSkipped = 0;
 		
-		try (DataInputStream din = new DataInputStream(in)) {
-			
-			// iterate in reverse order for restore
-			int pos = buf.limit();
-			for (int i=parts.size() - 1; i>=0; i--) {
-				Part part = parts.get(i);
-				pos -= part.size;
-				buf.position(pos);
-				part.restorer.restore(din);
+		// iterate in reverse order for restore
+		for (int i=parts.length - 1; i>=0; i--) {
+			Part part = parts[i];
+			if (shadow != null && part.slots != null) {
+				if (part.isCurrent(shadow, ints, intOffsets[i], floats, floatOffsets[i])) {
+					numSkipped++;
+					continue;
+				}
+				part.restore(ints, intOffsets[i], floats, floatOffsets[i]);
+				part.restore(shadow, ints, intOffsets[i], floats, floatOffsets[i]);
+			} else {
+				part.restore(ints, intOffsets[i], floats, floatOffsets[i]);
 			}
-			
-		} catch (IOException ex) {
-			throw new RuntimeException(ex);
 		}
 	}
+	
+	/**
+	 * Returns how many parts the last restore skipped, because GL still had their saved state.
+	 */
+	public int getNumSkipped() {
+		return numSkipped;
+	}
 }
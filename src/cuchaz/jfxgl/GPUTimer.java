@@ -0,0 +1,140 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package cuchaz.jfxgl;
+
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL33;
+
+import com.sun.prism.es2.JFXGLContexts;
+
+/**
+ * Measures GPU time for one phase of the frame using timestamp queries.
+ * <p>
+ * Query results are read back a few frames later, once the GPU has caught up, so timing never stalls
+ * the pipeline. If the GPU falls so far behind that the query ring fills up, samples are dropped instead.
+ * Results are recorded into {@link JFXGL#getFrameStats()} when {@link FrameStats#gpuEnabled} is on.
+ * <p>
+ * Query objects aren't shared between contexts, so only ever use a timer in one OpenGL context,
+ * and call {@link #cleanup()} in that context too.
+ */
+public class GPUTimer {
+	
+	public static final int RingSize = 4;
+	
+	// NOTE: use timestamps rather than GL_TIME_ELAPSED queries, since elapsed queries can't nest
+	
+	private final FrameStats.Phase phase;
+	private final int[] beginQueries;
+	private final int[] endQueries;
+	private final boolean[] isPending;
+	
+	private boolean isSupported;
+	private boolean isInitialized;
+	private boolean isTiming;
+	private int next;
+	
+	public GPUTimer(FrameStats.Phase phase) {
+		this.phase = phase;
+		beginQueries = new int[RingSize];
+		endQueries = new int[RingSize];
+		isPending = new boolean[RingSize];
+		isSupported = false;
+		isInitialized = false;
+		isTiming = false;
+		next = 0;
+	}
+	
+	public void begin() {
+		
+		FrameStats stats = JFXGL.getFrameStats();
+		if (!stats.enabled || !stats.gpuEnabled) {
+			return;
+		}
+		
+		if (!isInitialized) {
+			init();
+		}
+		if (!isSupported) {
+			return;
+		}
+		
+		// collect any results the GPU has finished
+		poll(stats);
+		
+		// if the ring is full, the GPU is way behind, so just drop this sample
+		if (isPending[next]) {
+			return;
+		}
+		
+		GL33.glQueryCounter(beginQueries[next], GL33.GL_TIMESTAMP);
+		isTiming = true;
+	}
+	
+	public void end() {
+		
+		if (!isTiming) {
+			return;
+		}
+		
+		GL33.glQueryCounter(endQueries[next], GL33.GL_TIMESTAMP);
+		isPending[next] = true;
+		next = (next + 1) % RingSize;
+		isTiming = false;
+	}
+	
+	private void init() {
+		
+		isInitialized = true;
+		
+		isSupported = JFXGLContexts.getCurrent().getFeatures().hasTimerQuery;
+		if (isSupported) {
+			GL15.glGenQueries(beginQueries);
+			GL15.glGenQueries(endQueries);
+		}
+	}
+	
+	private void poll(FrameStats stats) {
+		
+		// check the queries in the order they were issued
+		for (int i=0; i<RingSize; i++) {
+			int slot = (next + i) % RingSize;
+			if (!isPending[slot]) {
+				continue;
+			}
+			
+			// the GPU finishes queries in order, so if this one isn't done, none of the later ones are either
+			if (GL15.glGetQueryObjecti(endQueries[slot], GL15.GL_QUERY_RESULT_AVAILABLE) == GL15.GL_FALSE) {
+				break;
+			}
+			
+			long beginNs = GL33.glGetQueryObjecti64(beginQueries[slot], GL15.GL_QUERY_RESULT);
+			long endNs = GL33.glGetQueryObjecti64(endQueries[slot], GL15.GL_QUERY_RESULT);
+			stats.record(phase, endNs - beginNs);
+			isPending[slot] = false;
+		}
+	}
+	
+	/**
+	 * Deletes the query objects. Call this in the same context the timer was used in.
+	 * If the context is about to be destroyed anyway, there's no need to call this.
+	 */
+	public void cleanup() {
+		if (isSupported) {
+			GL15.glDeleteQueries(beginQueries);
+			GL15.glDeleteQueries(endQueries);
+		}
+		isSupported = false;
+		isInitialized = false;
+		isTiming = false;
+		for (int i=0; i<RingSize; i++) {
+			isPending[i] = false;
+		}
+	}
+}
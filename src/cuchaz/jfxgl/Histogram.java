@@ -0,0 +1,161 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package cuchaz.jfxgl;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size histogram of non-negative long values (eg nanoseconds), in the style of HdrHistogram.
+ * <p>
+ * Buckets are log-linear: every power of two is split into 32 sub-buckets, so recorded values keep
+ * about 3% precision across the whole range. All the storage is allocated up front, so recording
+ * never allocates and is cheap enough to leave on all the time.
+ * <p>
+ * Not thread-safe. Record values on one thread. Reading from another thread won't break anything,
+ * but might see a histogram in the middle of an update.
+ */
+public class Histogram {
+	
+	private static final int SubBucketBits = 5;
+	private static final int SubBucketCount = 1 << SubBucketBits;
+	private static final int SubBucketMask = SubBucketCount - 1;
+	
+	/** Larger values get clamped to this, it's a bit more than 18 minutes worth of nanoseconds */
+	public static final long MaxValue = (1L << 40) - 1;
+	
+	private static final int NumBuckets = indexOf(MaxValue) + 1;
+	
+	private static int indexOf(long value) {
+		
+		// small values get their own buckets
+		if (value < SubBucketCount*2) {
+			return (int)value;
+		}
+		
+		// larger values get bucketed by their top bits
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SubBucketBits;
+		int top = (int)(value >>> shift);
+		return (shift << SubBucketBits) + top;
+	}
+	
+	private static long lowestValueAt(int index) {
+		
+		if (index < SubBucketCount*2) {
+			return index;
+		}
+		
+		int shift = (index >> SubBucketBits) - 1;
+		long top = (index & SubBucketMask) | SubBucketCount;
+		return top << shift;
+	}
+	
+	private static long highestValueAt(int index) {
+		return lowestValueAt(index + 1) - 1;
+	}
+	
+	private final long[] counts;
+	private long count;
+	private long sum;
+	private long min;
+	private long max;
+	
+	public Histogram() {
+		counts = new long[NumBuckets];
+		reset();
+	}
+	
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+	
+	public void record(long value) {
+		
+		if (value < 0) {
+			value = 0;
+		} else if (value > MaxValue) {
+			value = MaxValue;
+		}
+		
+		counts[indexOf(value)]++;
+		count++;
+		sum += value;
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+	}
+	
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * Returns the smallest recorded value, or 0 if nothing has been recorded.
+	 */
+	public long getMin() {
+		if (count == 0) {
+			return 0;
+		}
+		return min;
+	}
+	
+	public long getMax() {
+		return max;
+	}
+	
+	public double getMean() {
+		if (count == 0) {
+			return 0;
+		}
+		return (double)sum/count;
+	}
+	
+	/**
+	 * Returns a value at least as large as the given percentage of recorded values, to within the bucket precision.
+	 * 
+	 * @param percentile in the range [0,100]
+	 */
+	public long getPercentile(double percentile) {
+		
+		if (count == 0) {
+			return 0;
+		}
+		
+		// how many values do we need to cover?
+		long target = (long)Math.ceil(percentile/100.0*count);
+		target = Math.max(1, Math.min(count, target));
+		
+		long covered = 0;
+		for (int i=0; i<counts.length; i++) {
+			covered += counts[i];
+			if (covered >= target) {
+				
+				// don't report values outside of what was actually recorded
+				return Math.max(min, Math.min(max, highestValueAt(i)));
+			}
+		}
+		
+		// shouldn't happen, but just in case
+		return max;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("n=%d min=%d p50=%d p90=%d p99=%d max=%d mean=%.1f",
+			getCount(), getMin(), getPercentile(50), getPercentile(90), getPercentile(99), getMax(), getMean()
+		);
+	}
+}
@@ -30,9 +30,11 @@ import com.sun.javafx.application.ParametersImpl;
 import com.sun.javafx.application.PlatformImpl;
 import com.sun.javafx.tk.Toolkit;
 import com.sun.javafx.tk.quantum.JFXGLToolkit;
+import com.sun.prism.es2.BufferArena;
 import com.sun.prism.es2.JFXGLContext;
 import com.sun.prism.es2.JFXGLContexts;
 import com.sun.prism.es2.JFXGLFactory;
+import com.sun.prism.es2.ShaderSet;
 
 import javafx.application.Application;
 import javafx.stage.Stage;
@@ -43,6 +45,55 @@ public class JFXGL {
 		void run() throws Exception;
 	}
 	
+	public static enum CompositeMode {
+		
+		/** Composite the JavaFX UI onto the current framebuffer every frame. */
+		Always,
+		
+		/**
+		 * Only composite the JavaFX UI when it changed.
+		 * <p>
+		 * The app is responsible for keeping the last composite around on frames where
+		 * the UI didn't change, eg by caching it in its own framebuffer.
+		 */
+		WhenChanged;
+	}
+	
+	public static CompositeMode compositeMode = CompositeMode.Always;
+	
+	public static enum PacingMode {
+		
+		/**
+		 * Never wait for JavaFX. Render whatever jobs are ready, which are usually from the previous pulse,
+		 * so the UI lags input by about a frame.
+		 */
+		Throughput,
+		
+		/**
+		 * Wait (up to {@link JFXGL#pacingDeadlineNs}) for the render jobs of the pulse posted this frame,
+		 * so the UI reflects the latest input.
+		 */
+		LowLatency,
+		
+		/**
+		 * Wait like {@link #LowLatency} while pulses finish within {@link JFXGL#pacingDeadlineNs} on average,
+		 * otherwise don't wait, like {@link #Throughput}.
+		 */
+		Adaptive;
+	}
+	
+	public static PacingMode pacingMode = PacingMode.Throughput;
+	public static long pacingDeadlineNs = 4*1000*1000; // 4 ms
+	
+	/**
+	 * If true, JavaFX renders directly in the app's OpenGL context instead of its own shared context.
+	 * <p>
+	 * This avoids switching contexts every frame, which is expensive on some drivers. Instead, JFXGL
+	 * saves and restores the OpenGL state JavaFX uses around JavaFX rendering. Set this before calling
+	 * {@link #start(long, String[], Application)}.
+	 */
+	public static boolean singleContext = false;
+	
 	private static class GLFWCallbacks {
 		public GLFWKeyCallbackI key = null;
 		public GLFWCharModsCallbackI keyChar = null;
@@ -58,6 +109,7 @@ public class JFXGL {
 	private static GLFWCallbacks ourCallbacks;
 	private static GLFWCallbacks existingCallbacks;
 	private static Callback debugCallback;
+	private static final FrameStats frameStats = new FrameStats();
 	
 	private JFXGL() {
 		// static only class, don't instantiate
@@ -70,13 +122,22 @@ public class JFXGL {
 		JFXGLContexts.app = JFXGLContext.wrapExisting(hwnd);
 		
 		// init the JavaFX OpenGL context
-		JFXGLContexts.javafx = JFXGLContext.makeNewSharedWith(JFXGLContexts.app.hwnd);
-		JFXGLContexts.javafx.makeCurrent();
-		debugCallback = LWJGLDebug.enableDebugging();
+		if (singleContext) {
+			JFXGLContexts.javafx = JFXGLContexts.app;
+		} else {
+			JFXGLContexts.javafx = JFXGLContext.makeNewSharedWith(JFXGLContexts.app.hwnd);
+		}
+		JFXGLContexts.switchToJavaFX();
+		
+		// NOTE: in single-context mode, debugging is up to the app, since it's the app's context
+		if (!singleContext) {
+			debugCallback = LWJGLDebug.enableDebugging();
+		}
 		
 		// init OpenGL state expected by JavaFX rendering
 		GL11.glEnable(GL11.GL_BLEND);
 		GL11.glBlendFunc(GL11.GL_ONE, GL11.GL_ONE_MINUS_SRC_ALPHA);
+		JFXGLContexts.javafx.invalidateState();
 		
 		// make sure JavaFX is using the OpenGL prism backend
 		System.setProperty("prism.order", "es2");
@@ -105,7 +166,7 @@ public class JFXGL {
 		}
 		
 		// go back to main context
-		JFXGLContexts.app.makeCurrent();
+		JFXGLContexts.switchToApp();
 		
 		// translate the String[] args into JavaFX Parameters
 		ParametersImpl.registerParameters(app, new ParametersImpl(args));
@@ -291,18 +352,172 @@ public class JFXGL {
 		return isFinished;
 	}
 	
+	/**
+	 * Returns the number of the next frame JavaFX will pulse.
+	 * <p>
+	 * Changes made to the scene graph on the events thread before calling this will be rendered by that frame.
+	 * Use {@link #isFrameRendered(long)} to find out when it's done, or hand the frame number to another thread
+	 * that can block in {@link #waitForFrame(long, long, TimeUnit)}.
+	 */
+	@CalledByEventsThread
+	public static long getNextFrame() {
+		return toolkit.getRenderer().getNextFrame();
+	}
+	
+	/**
+	 * Returns the number of the latest frame whose render jobs have all run on the main thread.
+	 */
+	@CalledByMainAndEventsThreads
+	public static long getRenderedFrame() {
+		return toolkit.getRenderer().getRenderedFrame();
+	}
+	
+	@CalledByMainAndEventsThreads
+	public static boolean isFrameRendered(long frame) {
+		return toolkit.getRenderer().isFrameRendered(frame);
+	}
+	
+	/**
+	 * Waits until all the render jobs for the frame have run on the main thread.
+	 * <p>
+	 * Don't call this on the main thread, since the main thread is the one that runs the render jobs.
+	 * Don't call it on the events thread either, since the events thread has to finish the pulse before the frame can render.
+	 * 
+	 * @return true if the frame was rendered, false if the timeout elapsed first
+	 */
+	@CalledByOtherThreads
+	public static boolean waitForFrame(long frame, long timeout, TimeUnit timeUnit) {
+		try {
+			return toolkit.getRenderer().waitForFrame(frame, timeout, timeUnit);
+		} catch (InterruptedException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+	
 	/**
 	 * Renders the JavaFX UI into the current framebuffer.
 	 * <p>
-	 * After rendering is complete, the OpenGL state is restored to what it was before calling render(). 
+	 * After rendering is complete, the OpenGL state is restored to what it was before calling render().
+	 * <p>
+	 * If {@link #compositeMode} is {@link CompositeMode#WhenChanged}, the UI is only composited
+	 * on frames where it changed.
+	 * 
+	 * @return true if the JavaFX UI changed since the last frame
+	 */
+	@CalledByMainThread
+	public static boolean render() {
+		
+		boolean changed = update();
+		
+		if (changed || compositeMode == CompositeMode.Always) {
+			composite();
+		}
+		
+		return changed;
+	}
+	
+	/**
+	 * Updates the JavaFX UI, but doesn't composite it into the current framebuffer.
+	 * <p>
+	 * Apps that manage their own UI compositing can call this, and then call {@link #composite()} only
+	 * on the frames where they need to.
+	 * 
+	 * @return true if the JavaFX UI changed since the last call
 	 */
-	public static void render() {
+	@CalledByMainThread
+	public static boolean update() {
+		
+		frameStats.nextFrame();
+		frameStats.begin(FrameStats.Phase.Total);
 		
 		// tell JavaFX stages and scenes to update and send render jobs (on the FX thread)
+		frameStats.begin(FrameStats.Phase.Pulse);
 		toolkit.postPulse();
+		frameStats.end(FrameStats.Phase.Pulse);
+		
+		// how long should we wait for this pulse?
+		long waitNs = 0;
+		switch (pacingMode) {
+			case Throughput:
+			break;
+			case LowLatency:
+				waitNs = pacingDeadlineNs;
+			break;
+			case Adaptive:
+				if (toolkit.getRenderer().getPulseLatencyNs() <= pacingDeadlineNs) {
+					waitNs = pacingDeadlineNs;
+				}
+			break;
+		}
 		
 		// process the render jobs from JavaFX
-		toolkit.render();
+		try {
+			return toolkit.runRenderJobs(waitNs);
+		} finally {
+			frameStats.end(FrameStats.Phase.Total);
+		}
+	}
+	
+	/**
+	 * Composites the last JavaFX UI into the current framebuffer.
+	 * <p>
+	 * After compositing is complete, the OpenGL state is restored to what it was before calling composite().
+	 */
+	@CalledByMainThread
+	public static void composite() {
+		frameStats.begin(FrameStats.Phase.Total);
+		try {
+			toolkit.composite();
+		} finally {
+			frameStats.end(FrameStats.Phase.Total);
+		}
+	}
+	
+	/**
+	 * Returns the timings for each frame rendered by JFXGL.
+	 * <p>
+	 * Timings are recorded unless {@link FrameStats#enabled} is turned off.
+	 */
+	public static FrameStats getFrameStats() {
+		return frameStats;
+	}
+	
+	/**
+	 * Starts compiling JavaFX's shader programs ahead of time, eg during a loading screen,
+	 * so the first frames that need them don't stall. Call this after {@link #start}.
+	 * <p>
+	 * Get the set from {@link #getShaderSet()} at the end of an earlier run.
+	 */
+	@CalledByMainThread
+	public static void warmUpShaders(ShaderSet set) {
+		JFXGLContexts.switchToJavaFX();
+		try {
+			JFXGLContexts.javafx.warmUp(set);
+		} finally {
+			JFXGLContexts.switchToApp();
+		}
+	}
+	
+	/**
+	 * Returns true once the driver has finished the programs from {@link #warmUpShaders(ShaderSet)}.
+	 * Never blocks, so it's fine to poll every frame.
+	 */
+	@CalledByMainThread
+	public static boolean isShaderWarmUpDone() {
+		JFXGLContexts.switchToJavaFX();
+		try {
+			return JFXGLContexts.javafx.isWarmUpDone();
+		} finally {
+			JFXGLContexts.switchToApp();
+		}
+	}
+	
+	/**
+	 * Returns every shader program JavaFX has used so far. Save it with {@link ShaderSet#write}
+	 * before calling {@link #terminate()}, and warm it up on the next run.
+	 */
+	public static ShaderSet getShaderSet() {
+		return JFXGLContexts.javafx.getShaderSet();
 	}
 
 	public static void terminate() {
@@ -337,6 +552,7 @@ public class JFXGL {
 				PlatformImpl.tkExit();
 			}
 			if (toolkit != null) {
+				toolkit.getRenderer().cleanup();
 				toolkit.disposePipeline();
 			}
 			if (debugCallback != null) {
@@ -344,6 +560,7 @@ public class JFXGL {
 				debugCallback = null;
 			}
 			JFXGLContexts.cleanup();
+			BufferArena.shared.cleanup();
 		}
 	}
 
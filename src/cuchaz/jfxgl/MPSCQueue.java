@@ -0,0 +1,76 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package cuchaz.jfxgl;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free linked queue for many producer threads and a single consumer thread.
+ * <p>
+ * Based on Dmitry Vyukov's MPSC queue. The elements are the queue nodes themselves,
+ * so offering an element never allocates anything, and neither does polling it.
+ * <p>
+ * {@link #offer} never blocks and can be called from any thread.
+ * {@link #poll} must only ever be called from the one consumer thread.
+ * Each element can only be offered once.
+ */
+public class MPSCQueue<T extends MPSCQueue.Node> {
+	
+	public static class Node {
+		private volatile Node next = null;
+	}
+	
+	private final AtomicReference<Node> tail;
+	private Node head;
+	
+	public MPSCQueue() {
+		
+		// start with a stub node, so head and tail are never null
+		Node stub = new Node();
+		head = stub;
+		tail = new AtomicReference<>(stub);
+	}
+	
+	@CalledByMainAndEventsThreads
+	public void offer(T item) {
+		
+		Node node = item;
+		node.next = null;
+		
+		// claim the tail first, then link the old tail to the new node
+		// NOTE: until the link happens, the consumer just sees a shorter queue
+		Node prev = tail.getAndSet(node);
+		prev.next = node;
+	}
+	
+	/**
+	 * Removes the element at the front of the queue, or returns null if the queue is empty.
+	 * Only call this from the consumer thread.
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll() {
+		
+		Node next = head.next;
+		if (next == null) {
+			return null;
+		}
+		
+		// the polled node becomes the new stub
+		head = next;
+		return (T)next;
+	}
+	
+	/**
+	 * Returns true if there's nothing to poll. Only call this from the consumer thread.
+	 */
+	public boolean isEmpty() {
+		return head.next == null;
+	}
+}
@@ -132,10 +132,11 @@ public class TexTools {
 	}
 
 	public static void dumpBuffer(OffscreenBuffer buf, String filename) {
-		dumpTexture(buf.getTexId(), buf.getWidth(), buf.getHeight(), filename);
+		// NOTE: the texture can be bigger than the buffer, and glGetTexImage() always reads the whole thing
+		dumpTexture(buf.getTexId(), buf.getTexWidth(), buf.getTexHeight(), filename);
 	}
 	
 	public static void dumpBuffer(OffscreenBuffer buf, File file) {
-		dumpTexture(buf.getTexId(), buf.getWidth(), buf.getHeight(), file);
+		dumpTexture(buf.getTexId(), buf.getTexWidth(), buf.getTexHeight(), file);
 	}
 }
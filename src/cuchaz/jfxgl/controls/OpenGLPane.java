@@ -26,7 +26,9 @@ import com.sun.prism.es2.OffscreenBuffer;
 
 import cuchaz.jfxgl.CalledByEventsThread;
 import cuchaz.jfxgl.CalledByMainThread;
+import cuchaz.jfxgl.FrameStats;
 import cuchaz.jfxgl.GLState;
+import cuchaz.jfxgl.GPUTimer;
 import cuchaz.jfxgl.InJavaFXGLContext;
 import cuchaz.jfxgl.LWJGLDebug;
 import javafx.animation.AnimationTimer;
@@ -43,6 +45,9 @@ public class OpenGLPane extends StackPane {
 		private Callback debugCallback;
 		private OffscreenBuffer buf;
 		
+		// NOTE: the timer lives in the pane context, so it goes away with the context
+		private GPUTimer timer = new GPUTimer(FrameStats.Phase.GPUPane);
+		
 		private GLState glstate = new GLState(
 			GLState.Blend, GLState.BlendFunc, GLState.ShaderProgram,
 			GLState.ActiveTexture, GLState.Texture2D[0],
@@ -158,27 +163,36 @@ public class OpenGLPane extends StackPane {
 						wasResized = buf.resize(w, h);
 					}
 					if (wasResized) {
+						
+						// the buffer texture can be bigger than the pane, so only draw in the corner
+						context.setViewport(0, 0, w, h);
+						
 						if (pane.resizer != null) {
 							pane.resizer.resize(context, w, h);
+							context.invalidateState();
 						}
 					}
 					
 					// call the downstream renderer
 					buf.bind();
+					timer.begin();
 					pane.renderer.render(context);
+					timer.end();
 					
 					JFXGLContexts.javafx.makeCurrent();
 					
-					glstate.backup();
+					// NOTE: the pane context did all the rendering, so the JavaFX shadow state is still good
+					glstate.backup(JFXGLContexts.javafx.getShadow());
 					
-					GL11.glDisable(GL11.GL_BLEND);
+					JFXGLContexts.javafx.setCapability(GL11.GL_BLEND, false);
 					
 					// render pane fbo to javafx fbo
 					boolean yflip = true; // JavaFX apparently renders upside down
 					buf.render(rx, ry, tw, th, yflip);
 					
 					// restore original JavaFX render state
-					glstate.restore();
+					// (the quad changes state through the contexts, so only the parts it actually changed get restored)
+					glstate.restore(JFXGLContexts.javafx.getShadow());
 					
 					/* DEBUG
 					System.out.println(String.format("render pane:    pos=%d,%d   size=%d,%d   clip=%s   bounds=%s",
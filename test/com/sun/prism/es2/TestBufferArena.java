@@ -0,0 +1,166 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package com.sun.prism.es2;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class TestBufferArena {
+	
+	@Test
+	public void sizeClasses() {
+		BufferArena arena = new BufferArena();
+		assertThat(getClassBytes(arena, 0), is(1024));
+		assertThat(getClassBytes(arena, 1), is(1024));
+		assertThat(getClassBytes(arena, 1024), is(1024));
+		assertThat(getClassBytes(arena, 1025), is(2048));
+		assertThat(getClassBytes(arena, 5000), is(8192));
+		arena.cleanup();
+	}
+	
+	@Test
+	public void acquireIsCleared() {
+		BufferArena arena = new BufferArena();
+		ByteBuffer buf = arena.acquire(100);
+		buf.putInt(5);
+		buf.limit(10);
+		arena.release(buf);
+		buf = arena.acquire(100);
+		assertThat(buf.position(), is(0));
+		assertThat(buf.limit(), is(1024));
+		arena.release(buf);
+		arena.cleanup();
+	}
+	
+	@Test
+	public void reuse() {
+		BufferArena arena = new BufferArena();
+		ByteBuffer a = arena.acquire(1000);
+		arena.release(a);
+		
+		// same size class, so same buffer
+		assertThat(arena.acquire(600), is(sameInstance(a)));
+		
+		// different size class, so a new buffer
+		ByteBuffer b = arena.acquire(2000);
+		assertThat(b, is(not(sameInstance(a))));
+		
+		arena.release(a);
+		arena.release(b);
+		arena.cleanup();
+	}
+	
+	@Test
+	public void counters() {
+		BufferArena arena = new BufferArena();
+		ByteBuffer a = arena.acquire(1024);
+		ByteBuffer b = arena.acquire(4096);
+		assertThat(arena.getAllocatedBytes(), is(5120L));
+		assertThat(arena.getInUseBytes(), is(5120L));
+		assertThat(arena.getUnusedBytes(), is(0L));
+		
+		arena.release(b);
+		assertThat(arena.getAllocatedBytes(), is(5120L));
+		assertThat(arena.getInUseBytes(), is(1024L));
+		assertThat(arena.getUnusedBytes(), is(4096L));
+		
+		arena.release(a);
+		assertThat(arena.getInUseBytes(), is(0L));
+		assertThat(arena.getUnusedBytes(), is(5120L));
+		
+		arena.cleanup();
+		assertThat(arena.getAllocatedBytes(), is(0L));
+	}
+	
+	@Test
+	public void trimBiggestFirst() {
+		BufferArena arena = new BufferArena();
+		ByteBuffer small = arena.acquire(1024);
+		ByteBuffer medium = arena.acquire(2048);
+		ByteBuffer big = arena.acquire(4096);
+		arena.release(small);
+		arena.release(medium);
+		arena.release(big);
+		
+		// only the biggest buffer has to go
+		arena.trim(3072);
+		assertThat(arena.getUnusedBytes(), is(3072L));
+		assertThat(arena.acquire(1024), is(sameInstance(small)));
+		assertThat(arena.acquire(2048), is(sameInstance(medium)));
+		
+		arena.release(small);
+		arena.release(medium);
+		arena.cleanup();
+	}
+	
+	@Test
+	public void highWater() {
+		BufferArena arena = new BufferArena();
+		arena.highWaterBytes = 2048;
+		ByteBuffer a = arena.acquire(1024);
+		ByteBuffer b = arena.acquire(4096);
+		arena.release(a);
+		arena.release(b);
+		
+		// releasing the big one went over the high water mark, so it got freed
+		assertThat(arena.getUnusedBytes(), is(1024L));
+		assertThat(arena.getAllocatedBytes(), is(1024L));
+		arena.cleanup();
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void releaseForeign() {
+		BufferArena arena = new BufferArena();
+		arena.release(ByteBuffer.allocateDirect(1000));
+	}
+	
+	@Test
+	public void otherThread()
+	throws Exception {
+		BufferArena arena = new BufferArena();
+		arena.release(arena.acquire(1024));
+		
+		AtomicReference<Throwable> error = new AtomicReference<>(null);
+		runOnThread(() -> arena.acquire(1024), error);
+		assertThat(error.get(), is(instanceOf(IllegalStateException.class)));
+		
+		// after cleanup, another thread can take over, like a second JFXGL.start()
+		arena.cleanup();
+		error.set(null);
+		runOnThread(() -> arena.release(arena.acquire(1024)), error);
+		assertThat(error.get(), is(nullValue()));
+		
+		arena.cleanup();
+	}
+	
+	private static int getClassBytes(BufferArena arena, int numBytes) {
+		ByteBuffer buf = arena.acquire(numBytes);
+		arena.release(buf);
+		return buf.capacity();
+	}
+	
+	private static void runOnThread(Runnable runnable, AtomicReference<Throwable> error)
+	throws InterruptedException {
+		Thread thread = new Thread(() -> {
+			try {
+				runnable.run();
+			} catch (Throwable t) {
+				error.set(t);
+			}
+		});
+		thread.start();
+		thread.join();
+	}
+}
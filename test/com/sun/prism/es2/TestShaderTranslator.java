@@ -0,0 +1,89 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package com.sun.prism.es2;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestShaderTranslator {
+	
+	private static final String Vertex = "#ifdef GL_ES\n"
+		+ "#endif\n"
+		+ "attribute vec2 positionAttr;\n"
+		+ "varying vec2 texCoord0;\n"
+		+ "void main() {\n"
+		+ "\tgl_Position = vec4(positionAttr, 0.0, 1.0);\n"
+		+ "}\n";
+	
+	private static final String Fragment = "#ifdef GL_ES\n"
+		+ "precision mediump float;\n"
+		+ "#endif\n"
+		+ "varying vec2 texCoord0;\n"
+		+ "uniform sampler2D maskInput;\n"
+		+ "void main() {\n"
+		+ "\tgl_FragColor = texture2D(maskInput, texCoord0);\n"
+		+ "}\n";
+	
+	@Test
+	public void vertex() {
+		ShaderTranslator.Result result = ShaderTranslator.translate(Vertex, true, false);
+		assertThat(result.source, startsWith("#version 150\n"));
+		assertThat(result.source, containsString("in vec2 positionAttr;"));
+		assertThat(result.source, containsString("out vec2 texCoord0;"));
+		assertThat(result.samplers, is(nullValue()));
+		ShaderTranslator.check(result);
+	}
+	
+	@Test
+	public void fragment() {
+		ShaderTranslator.Result result = ShaderTranslator.translate(Fragment, false, false);
+		assertThat(result.source, containsString("in vec2 texCoord0;"));
+		assertThat(result.source, containsString("outFragColor = texture(maskInput, texCoord0);"));
+		assertThat(result.samplers, is(nullValue()));
+		ShaderTranslator.check(result);
+	}
+	
+	@Test
+	public void fragmentAlphaInShader() {
+		ShaderTranslator.Result result = ShaderTranslator.translate(Fragment, false, true);
+		assertThat(result.source, containsString("uniform bool jfxglAlpha_maskInput;"));
+		assertThat(result.source, containsString("jfxglTexture(maskInput, jfxglAlpha_maskInput, texCoord0)"));
+		assertThat(result.samplers, contains("maskInput"));
+		ShaderTranslator.check(result);
+	}
+	
+	@Test
+	public void alreadyModern() {
+		String source = "#version 150\nvoid main() {}\n";
+		assertThat(ShaderTranslator.translate(source, true, false).source, is(source));
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void checkLegacy() {
+		ShaderTranslator.check(new ShaderTranslator.Result("varying vec2 texCoord0;", null));
+	}
+	
+	@Test
+	public void resourceRoundTrip() {
+		ShaderTranslator.Result result = ShaderTranslator.translate(Fragment, false, true);
+		ShaderTranslator.Result loaded = ShaderTranslator.fromResource(ShaderTranslator.toResource(result));
+		assertThat(loaded.source, is(result.source));
+		assertThat(loaded.samplers, is(result.samplers));
+	}
+	
+	@Test
+	public void pretranslatedNames() {
+		assertThat(ShaderTranslator.getPretranslatedName(Vertex, true, true), endsWith(".vert"));
+		assertThat(ShaderTranslator.getPretranslatedName(Fragment, false, false), endsWith(".frag"));
+		assertThat(ShaderTranslator.getPretranslatedName(Fragment, false, true), endsWith("-alpha.frag"));
+	}
+}
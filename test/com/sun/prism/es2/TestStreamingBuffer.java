@@ -0,0 +1,95 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package com.sun.prism.es2;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestStreamingBuffer {
+	
+	@Test
+	public void sameSection() {
+		StreamingBuffer.Ring ring = new StreamingBuffer.Ring(256, 4);
+		assertThat(ring.reserve(16), is(0));
+		assertThat(ring.reserve(20), is(16));
+		assertThat(ring.reserve(16), is(48));
+		assertThat(ring.leftSection, is(-1));
+		assertThat(ring.getSection(), is(0));
+	}
+	
+	@Test
+	public void regionDoesntFit() {
+		StreamingBuffer.Ring ring = new StreamingBuffer.Ring(256, 4);
+		ring.reserve(48);
+		assertThat(ring.reserve(32), is(64));
+		assertThat(ring.leftSection, is(0));
+		assertThat(ring.getSection(), is(1));
+	}
+	
+	@Test
+	public void batchCrossesBoundary() {
+		StreamingBuffer.Ring ring = new StreamingBuffer.Ring(256, 4);
+		ring.reserve(48);
+		
+		// coords and colors for one draw go in one region, so they move to the next section together
+		int coordsBytes = 20;
+		int colorsBytes = 8;
+		int offset = ring.reserve(coordsBytes + colorsBytes);
+		assertThat(offset, is(64));
+		assertThat(ring.leftSection, is(0));
+		assertThat((offset + coordsBytes)/ring.sectionSize, is(1));
+		assertThat((offset + coordsBytes + colorsBytes - 1)/ring.sectionSize, is(1));
+		
+		// the next batch stays in the same section, so nothing gets fenced before its draw
+		ring.reserve(coordsBytes + colorsBytes);
+		assertThat(ring.leftSection, is(-1));
+	}
+	
+	@Test
+	public void fillToBoundary() {
+		StreamingBuffer.Ring ring = new StreamingBuffer.Ring(256, 4);
+		assertThat(ring.reserve(64), is(0));
+		assertThat(ring.leftSection, is(-1));
+		
+		// the last region ended exactly on the boundary, so this one crosses into the next section
+		assertThat(ring.reserve(16), is(64));
+		assertThat(ring.leftSection, is(0));
+		assertThat(ring.getSection(), is(1));
+		assertThat(ring.wrapped, is(false));
+	}
+	
+	@Test
+	public void fillToEnd() {
+		StreamingBuffer.Ring ring = new StreamingBuffer.Ring(256, 4);
+		for (int i=0; i<4; i++) {
+			assertThat(ring.reserve(64), is(i*64));
+		}
+		assertThat(ring.getSection(), is(3));
+		
+		// the last region ended exactly at the end of the ring, so this one wraps around
+		assertThat(ring.reserve(16), is(0));
+		assertThat(ring.wrapped, is(true));
+		assertThat(ring.leftSection, is(3));
+		assertThat(ring.getSection(), is(0));
+	}
+	
+	@Test
+	public void wrapAround() {
+		StreamingBuffer.Ring ring = new StreamingBuffer.Ring(256, 4);
+		for (int i=0; i<4; i++) {
+			ring.reserve(48);
+		}
+		assertThat(ring.reserve(32), is(0));
+		assertThat(ring.wrapped, is(true));
+		assertThat(ring.leftSection, is(3));
+	}
+}
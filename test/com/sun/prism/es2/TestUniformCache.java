@@ -0,0 +1,86 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package com.sun.prism.es2;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.nio.FloatBuffer;
+
+import org.junit.Test;
+
+public class TestUniformCache {
+	
+	@Test
+	public void repeatedValuesAreSkipped() {
+		UniformCache cache = new UniformCache();
+		assertThat(cache.set(0, 1f, 2f), is(true));
+		assertThat(cache.set(0, 1f, 2f), is(false));
+		assertThat(cache.set(0, 1f, 3f), is(true));
+		assertThat(cache.set(0, 1f, 3f), is(false));
+	}
+	
+	@Test
+	public void typesDontMatch() {
+		UniformCache cache = new UniformCache();
+		assertThat(cache.set(0, 0), is(true));
+		assertThat(cache.set(0, 0f), is(true));
+		assertThat(cache.set(0, 0f, 0f), is(true));
+		assertThat(cache.set(0, 0f, 0f), is(false));
+	}
+	
+	@Test
+	public void negativeZero() {
+		UniformCache cache = new UniformCache();
+		assertThat(cache.set(0, 0f), is(true));
+		assertThat(cache.set(0, -0f), is(true));
+	}
+	
+	@Test
+	public void unusedLocation() {
+		UniformCache cache = new UniformCache();
+		assertThat(cache.set(-1, 5), is(false));
+	}
+	
+	@Test
+	public void largeLocations() {
+		UniformCache cache = new UniformCache();
+		assertThat(cache.set(100, 5), is(true));
+		assertThat(cache.set(100, 5), is(false));
+	}
+	
+	@Test
+	public void buffers() {
+		UniformCache cache = new UniformCache();
+		FloatBuffer buf = FloatBuffer.wrap(new float[] { 1, 2, 3, 4 });
+		assertThat(cache.set(0, buf), is(true));
+		assertThat(cache.set(0, buf), is(false));
+		assertThat(buf.position(), is(0));
+		buf.put(3, 5);
+		assertThat(cache.set(0, buf), is(true));
+	}
+	
+	@Test
+	public void matrices() {
+		UniformCache cache = new UniformCache();
+		float[] m = new float[16];
+		assertThat(cache.setMatrix(0, false, m), is(true));
+		assertThat(cache.setMatrix(0, false, m), is(false));
+		assertThat(cache.setMatrix(0, true, m), is(true));
+	}
+	
+	@Test
+	public void clear() {
+		UniformCache cache = new UniformCache();
+		assertThat(cache.set(0, 5), is(true));
+		cache.clear();
+		assertThat(cache.set(0, 5), is(true));
+	}
+}
@@ -0,0 +1,141 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package cuchaz.jfxgl;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestGLState {
+	
+	// fake GL state, so the parts don't need a context
+	private int intVal = 0;
+	private boolean boolVal = false;
+	private int[] int4Val = { 0, 0, 0, 0 };
+	private float[] float4Val = { 0, 0, 0, 0 };
+	private List<String> restored = new ArrayList<>();
+	
+	private final GLState.Part.IntVal intPart = new GLState.Part.IntVal(
+		() -> intVal,
+		(val) -> {
+			intVal = val;
+			restored.add("int");
+		}
+	);
+	
+	private final GLState.Part.BoolVal boolPart = new GLState.Part.BoolVal(
+		() -> boolVal,
+		(val) -> {
+			boolVal = val;
+			restored.add("bool");
+		}
+	);
+	
+	private final GLState.Part.Int4Val int4Part = new GLState.Part.Int4Val(
+		(buf) -> buf.put(0, int4Val[0]).put(1, int4Val[1]).put(2, int4Val[2]).put(3, int4Val[3]),
+		(a, b, c, d) -> {
+			int4Val = new int[] { a, b, c, d };
+			restored.add("int4");
+		}
+	);
+	
+	private final GLState.Part.Float4Val float4Part = new GLState.Part.Float4Val(
+		(buf) -> buf.put(0, float4Val[0]).put(1, float4Val[1]).put(2, float4Val[2]).put(3, float4Val[3]),
+		(a, b, c, d) -> {
+			float4Val = new float[] { a, b, c, d };
+			restored.add("float4");
+		}
+	);
+	
+	@Test
+	public void backupRestore() {
+		
+		GLState state = new GLState(intPart, float4Part, boolPart, int4Part);
+		
+		intVal = 5;
+		boolVal = true;
+		int4Val = new int[] { 1, 2, 3, 4 };
+		float4Val = new float[] { 0.1f, 0.2f, 0.3f, 0.4f };
+		state.backup();
+		
+		intVal = 6;
+		boolVal = false;
+		int4Val = new int[] { 5, 6, 7, 8 };
+		float4Val = new float[] { 0.5f, 0.6f, 0.7f, 0.8f };
+		state.restore();
+		
+		assertThat(intVal, is(5));
+		assertThat(boolVal, is(true));
+		assertThat(int4Val, is(new int[] { 1, 2, 3, 4 }));
+		assertThat(float4Val, is(new float[] { 0.1f, 0.2f, 0.3f, 0.4f }));
+	}
+	
+	@Test
+	public void restoreInReverse() {
+		GLState state = new GLState(intPart, float4Part, boolPart, int4Part);
+		state.backup();
+		state.restore();
+		assertThat(restored, contains("int4", "bool", "float4", "int"));
+	}
+	
+	@Test
+	public void restoreTwice() {
+		
+		GLState state = new GLState(intPart, int4Part);
+		
+		intVal = 5;
+		int4Val = new int[] { 1, 2, 3, 4 };
+		state.backup();
+		
+		state.restore();
+		intVal = 6;
+		state.restore();
+		
+		assertThat(intVal, is(5));
+		assertThat(int4Val, is(new int[] { 1, 2, 3, 4 }));
+	}
+	
+	@Test
+	public void restoreOnlyChanged() {
+		
+		GLShadow shadow = new GLShadow();
+		GLState.Part.IntVal shadowedPart = new GLState.Part.IntVal(
+			GLShadow.DepthFunc,
+			() -> intVal,
+			(val) -> {
+				intVal = val;
+				restored.add("shadowed");
+			}
+		);
+		GLState state = new GLState(shadowedPart, boolPart);
+		
+		intVal = 5;
+		shadow.set(GLShadow.DepthFunc, 5);
+		state.backup(shadow);
+		
+		// nothing changed in the shadow, so only the unshadowed part gets restored
+		state.restore(shadow);
+		assertThat(restored, contains("bool"));
+		assertThat(state.getNumSkipped(), is(1));
+		
+		restored.clear();
+		intVal = 6;
+		shadow.set(GLShadow.DepthFunc, 6);
+		state.restore(shadow);
+		assertThat(restored, contains("bool", "shadowed"));
+		assertThat(state.getNumSkipped(), is(0));
+		assertThat(intVal, is(5));
+		assertThat(shadow.get(GLShadow.DepthFunc), is(5));
+	}
+}
@@ -0,0 +1,71 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package cuchaz.jfxgl;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestHistogram {
+	
+	@Test
+	public void empty() {
+		Histogram h = new Histogram();
+		assertThat(h.getCount(), is(0L));
+		assertThat(h.getMin(), is(0L));
+		assertThat(h.getMax(), is(0L));
+		assertThat(h.getPercentile(50), is(0L));
+	}
+	
+	@Test
+	public void smallValuesAreExact() {
+		Histogram h = new Histogram();
+		for (long i=0; i<50; i++) {
+			h.record(i);
+		}
+		assertThat(h.getCount(), is(50L));
+		assertThat(h.getMin(), is(0L));
+		assertThat(h.getMax(), is(49L));
+		assertThat(h.getPercentile(50), is(24L));
+		assertThat(h.getPercentile(100), is(49L));
+		assertThat(h.getMean(), is(24.5));
+	}
+	
+	@Test
+	public void largeValuesArePrecise() {
+		Histogram h = new Histogram();
+		for (long i=1; i<=1000; i++) {
+			h.record(i*1000);
+		}
+		assertThat((double)h.getPercentile(50), is(closeTo(500000, 500000*0.04)));
+		assertThat((double)h.getPercentile(90), is(closeTo(900000, 900000*0.04)));
+		assertThat((double)h.getPercentile(99), is(closeTo(990000, 990000*0.04)));
+		assertThat(h.getPercentile(100), is(1000000L));
+	}
+	
+	@Test
+	public void clamp() {
+		Histogram h = new Histogram();
+		h.record(-5);
+		h.record(Long.MAX_VALUE);
+		assertThat(h.getMin(), is(0L));
+		assertThat(h.getMax(), is(Histogram.MaxValue));
+	}
+	
+	@Test
+	public void reset() {
+		Histogram h = new Histogram();
+		h.record(42);
+		h.reset();
+		assertThat(h.getCount(), is(0L));
+		assertThat(h.getMax(), is(0L));
+	}
+}
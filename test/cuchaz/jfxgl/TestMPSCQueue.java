@@ -0,0 +1,98 @@
+/*************************************************************************
+ * Copyright (C) 2017, Jeffrey W. Martin "Cuchaz"
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 with
+ * the classpath exception, as published by the Free Software Foundation.
+ * 
+ * See LICENSE.txt in the project root folder for the full license.
+ *************************************************************************/
+package cuchaz.jfxgl;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+
+public class TestMPSCQueue {
+	
+	private static class Item extends MPSCQueue.Node {
+		
+		public final int producer;
+		public final int index;
+		
+		public Item(int producer, int index) {
+			this.producer = producer;
+			this.index = index;
+		}
+	}
+	
+	@Test
+	public void empty() {
+		MPSCQueue<Item> q = new MPSCQueue<>();
+		assertThat(q.isEmpty(), is(true));
+		assertThat(q.poll(), is(nullValue()));
+	}
+	
+	@Test
+	public void fifo() {
+		MPSCQueue<Item> q = new MPSCQueue<>();
+		Item a = new Item(0, 0);
+		Item b = new Item(0, 1);
+		Item c = new Item(0, 2);
+		q.offer(a);
+		q.offer(b);
+		assertThat(q.isEmpty(), is(false));
+		assertThat(q.poll(), is(sameInstance(a)));
+		q.offer(c);
+		assertThat(q.poll(), is(sameInstance(b)));
+		assertThat(q.poll(), is(sameInstance(c)));
+		assertThat(q.poll(), is(nullValue()));
+		assertThat(q.isEmpty(), is(true));
+	}
+	
+	@Test
+	public void manyProducers()
+	throws Exception {
+		
+		final int numProducers = 4;
+		final int numItems = 100000;
+		
+		MPSCQueue<Item> q = new MPSCQueue<>();
+		
+		List<Thread> threads = new ArrayList<>();
+		for (int p=0; p<numProducers; p++) {
+			final int producer = p;
+			Thread thread = new Thread(() -> {
+				for (int i=0; i<numItems; i++) {
+					q.offer(new Item(producer, i));
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		
+		// consume everything, and make sure each producer's items come out in order
+		int[] nextIndex = new int[numProducers];
+		int numPolled = 0;
+		while (numPolled < numProducers*numItems) {
+			Item item = q.poll();
+			if (item == null) {
+				Thread.yield();
+				continue;
+			}
+			assertThat(item.index, is(nextIndex[item.producer]));
+			nextIndex[item.producer]++;
+			numPolled++;
+		}
+		
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertThat(q.poll(), is(nullValue()));
+	}
+}